@@ -26,12 +26,22 @@
 
 package imagesharing.controller;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
+import imagesharing.util.ImagePool;
 import imagesharing.util.IntegerArithmetics;
+import imagesharing.util.PixelHash;
+import imagesharing.util.PixelRaster;
 import imagesharing.util.RunOnceRunnable;
 
 /**
@@ -43,20 +53,56 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 {
 	private final Object imageLock = new Object();
 
-	private final int tileWidth = 128;
-	private final int tileHeight = 128;
-	private final long timeQuantum = 100;
+	private static final int CHANGE_LOG_CAPACITY = 64;
+
+	private static final int MIN_ADAPTIVE_TILE_SIZE = 64;
+	private static final int MAX_ADAPTIVE_TILE_SIZE = 512;
+	private static final int ADAPTIVE_UPDATES_PER_DECISION = 50;
+	private static final double ADAPTIVE_DENSE_CHANGES = 0.5;
+	private static final double ADAPTIVE_SPARSE_CHANGES = 0.05;
+	private static final int ADAPTIVE_FEW_CHANGED_TILES = 2;
+
+	private volatile int tileWidth = 128;
+	private volatile int tileHeight = 128;
+	private volatile boolean adaptiveTileSize = false;
+	private int adaptiveBaseTileWidth = 0;
+	private int adaptiveBaseTileHeight = 0;
+	private int adaptiveTileWidth = 0;
+	private int adaptiveTileHeight = 0;
+	private int adaptiveUpdateCount = 0;
+	private double adaptiveChangeDensity = 0;
+	private double adaptiveChangedTiles = 0;
+	private volatile long pollingInterval = 100;
+	private volatile long minimumUpdateInterval = 20;
+	private volatile UpdateSchedulingMode updateSchedulingMode = UpdateSchedulingMode.POLLING;
 
 	private volatile boolean shouldRun = false;
 	private volatile boolean running = false;
 
-	private volatile ImageIdentifier imageIdentifier = null;
+	private volatile int comparisonThreadCount = Runtime.getRuntime().availableProcessors();
+	private volatile Executor comparisonExecutor = null;
+	private ExecutorService ownComparisonExecutor = null;
+
+	private volatile Frame frame = null;
 	private volatile long nextImageNumber = 0;
-	private volatile TileData[][] tiles = null;
-	private volatile BufferedImage currentImage = null;
 	private volatile int currentImageNumber = 0;
 	private volatile BufferedImage candidateImage = null;
 	private volatile int candidateImageNumber = 0;
+	private boolean candidateImageTaken = false;
+	private long droppedImageCount = 0;
+	private Rectangle[] candidateDirtyRegions = null;
+	private volatile long fullComparisonInterval = 0;
+	private long lastFullComparisonTimestamp = 0;
+	private volatile ImagePool imagePool = null;
+	private volatile FrameStorageMode frameStorageMode = FrameStorageMode.HEAP;
+	private FrameBuffer backBuffer = null;
+	private List<TilePosition> backBufferStaleTiles = null;
+
+	private final ArrayList<ImageUpdateListener> imageUpdateListeners = new ArrayList<ImageUpdateListener>();
+
+	private volatile ChangeDetectionMode changeDetectionMode = ChangeDetectionMode.PIXEL_COMPARISON;
+	private boolean tileHashesValid = false;
+	private int tileHashesImageType = 0;
 
 	/**
 	 * {@inheritDoc}
@@ -111,24 +157,393 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 		}
 	}
 
+	/**
+	 * Gets the executor used to compare the tiles of consecutive images.
+	 *
+	 * @return The executor or {@code null} if the controller manages its own worker threads.
+	 */
+	public Executor getComparisonExecutor()
+	{
+		return this.comparisonExecutor;
+	}
+
+	/**
+	 * Sets the executor used to compare the tiles of consecutive images.
+	 * <p/>
+	 * If the executor is {@code null}, the controller creates its own pool of {@link #getComparisonThreadCount() comparison threads} while it is running. The controller thread always takes part in the comparison, so an executor which rejects or delays tasks only makes the comparison slower.
+	 *
+	 * @param value The executor or {@code null}.
+	 */
+	public void setComparisonExecutor(Executor value)
+	{
+		this.comparisonExecutor = value;
+	}
+
+	/**
+	 * Gets the number of worker threads the controller uses to compare tiles when no executor has been provided.
+	 *
+	 * @return The number of worker threads.
+	 */
+	public int getComparisonThreadCount()
+	{
+		return this.comparisonThreadCount;
+	}
+
+	/**
+	 * Sets the number of worker threads the controller uses to compare tiles when no executor has been provided.
+	 * <p/>
+	 * A value of one (or less) makes the controller compare all tiles on its own thread. The change takes effect the next time the controller is started.
+	 *
+	 * @param value The number of worker threads.
+	 */
+	public void setComparisonThreadCount(int value)
+	{
+		this.comparisonThreadCount = value;
+	}
+
+	/**
+	 * Gets the strategy used to detect which tiles have changed.
+	 *
+	 * @return The change detection mode.
+	 */
+	public ChangeDetectionMode getChangeDetectionMode()
+	{
+		return this.changeDetectionMode;
+	}
+
+	/**
+	 * Sets the strategy used to detect which tiles have changed.
+	 * <p/>
+	 * The change takes effect on the next image update. When switching to {@link ChangeDetectionMode#CONTENT_HASH}, the first update still compares pixels, since there are no hashes to compare against yet.
+	 *
+	 * @param value The change detection mode.
+	 */
+	public void setChangeDetectionMode(ChangeDetectionMode value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("The change detection mode must be provided!");
+		}
+		this.changeDetectionMode = value;
+	}
+
+	/**
+	 * Gets where the pixels of the shared image are kept.
+	 *
+	 * @return The frame storage mode.
+	 */
+	public FrameStorageMode getFrameStorageMode()
+	{
+		return this.frameStorageMode;
+	}
+
+	/**
+	 * Sets where the pixels of the shared image are kept.
+	 * <p/>
+	 * The change takes effect gradually, as the buffers holding the pixels are replaced on the next image updates.
+	 *
+	 * @param value The frame storage mode.
+	 */
+	public void setFrameStorageMode(FrameStorageMode value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("The frame storage mode must be provided!");
+		}
+		this.frameStorageMode = value;
+	}
+
+	/**
+	 * Gets the width of the tiles the image is split into.
+	 * <p/>
+	 * If the tile size is {@link #isAdaptiveTileSize() adaptive}, this is the initial width.
+	 *
+	 * @return The tile width, in pixels.
+	 */
+	public int getTileWidth()
+	{
+		return this.tileWidth;
+	}
+
+	/**
+	 * Gets the height of the tiles the image is split into.
+	 * <p/>
+	 * If the tile size is {@link #isAdaptiveTileSize() adaptive}, this is the initial height.
+	 *
+	 * @return The tile height, in pixels.
+	 */
+	public int getTileHeight()
+	{
+		return this.tileHeight;
+	}
+
+	/**
+	 * Sets the size of the tiles the image is split into.
+	 * <p/>
+	 * The change takes effect on the next image update. Since the image is split in a different way, it gets a new image identifier.
+	 *
+	 * @param width The tile width, in pixels.
+	 * @param height The tile height, in pixels.
+	 */
+	public void setTileSize(int width, int height)
+	{
+		if (width <= 0 || height <= 0)
+		{
+			throw new IllegalArgumentException("The tile dimensions must be positive!");
+		}
+		synchronized (this.imageLock)
+		{
+			this.tileWidth = width;
+			this.tileHeight = height;
+		}
+	}
+
+	/**
+	 * Checks if the controller chooses the tile size from the density of recent changes.
+	 *
+	 * @return If the tile size is adaptive.
+	 */
+	public boolean isAdaptiveTileSize()
+	{
+		return this.adaptiveTileSize;
+	}
+
+	/**
+	 * Sets if the controller should choose the tile size from the density of recent changes.
+	 * <p/>
+	 * When enabled, the tiles start with the configured size, and may be doubled or halved (between {@value #MIN_ADAPTIVE_TILE_SIZE} and {@value #MAX_ADAPTIVE_TILE_SIZE} pixels) as the controller learns how the image changes. Each change of size gives the image a new image identifier.
+	 *
+	 * @param value If the tile size should be adaptive.
+	 */
+	public void setAdaptiveTileSize(boolean value)
+	{
+		this.adaptiveTileSize = value;
+	}
+
+	/**
+	 * Gets the strategy used to decide when to look for changes in the image.
+	 *
+	 * @return The update scheduling mode.
+	 */
+	public UpdateSchedulingMode getUpdateSchedulingMode()
+	{
+		return this.updateSchedulingMode;
+	}
+
+	/**
+	 * Sets the strategy used to decide when to look for changes in the image.
+	 *
+	 * @param value The update scheduling mode.
+	 */
+	public void setUpdateSchedulingMode(UpdateSchedulingMode value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("The update scheduling mode must be provided!");
+		}
+		synchronized (this.imageLock)
+		{
+			this.updateSchedulingMode = value;
+			this.imageLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Gets the interval between two checks for a new image, in milliseconds, when using {@link UpdateSchedulingMode#POLLING}.
+	 *
+	 * @return The polling interval.
+	 */
+	public long getPollingInterval()
+	{
+		return this.pollingInterval;
+	}
+
+	/**
+	 * Sets the interval between two checks for a new image, in milliseconds, when using {@link UpdateSchedulingMode#POLLING}.
+	 *
+	 * @param value The polling interval.
+	 */
+	public void setPollingInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The polling interval must be positive!");
+		}
+		this.pollingInterval = value;
+	}
+
+	/**
+	 * Gets the minimum interval between two updates, in milliseconds, when using {@link UpdateSchedulingMode#EVENT_DRIVEN}.
+	 *
+	 * @return The minimum update interval.
+	 */
+	public long getMinimumUpdateInterval()
+	{
+		return this.minimumUpdateInterval;
+	}
+
+	/**
+	 * Sets the minimum interval between two updates, in milliseconds, when using {@link UpdateSchedulingMode#EVENT_DRIVEN}.
+	 * <p/>
+	 * Images set before this interval has passed since the last update are coalesced: only the most recent one is compared.
+	 *
+	 * @param value The minimum update interval.
+	 */
+	public void setMinimumUpdateInterval(long value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("The minimum update interval must not be negative!");
+		}
+		this.minimumUpdateInterval = value;
+	}
+
+	/**
+	 * Gets the minimum interval between two updates which compare the whole image, even if the image has been given with dirty regions.
+	 *
+	 * @return The interval, in milliseconds, or zero if dirty regions are always trusted.
+	 */
+	public long getFullComparisonInterval()
+	{
+		return this.fullComparisonInterval;
+	}
+
+	/**
+	 * Sets the minimum interval between two updates which compare the whole image, even if the image has been given with dirty regions.
+	 * <p/>
+	 * This is a safety net for producers which may miss some changes when reporting dirty regions. By default, dirty regions are always trusted.
+	 *
+	 * @param value The interval, in milliseconds, or zero if dirty regions should always be trusted.
+	 */
+	public void setFullComparisonInterval(long value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("The full comparison interval must not be negative!");
+		}
+		this.fullComparisonInterval = value;
+	}
+
+	/**
+	 * Adds an object which should be notified of each update of the shared image.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addImageUpdateListener(ImageUpdateListener listener)
+	{
+		if (listener == null)
+		{
+			throw new NullPointerException("The listener must be provided!");
+		}
+		synchronized (this.imageUpdateListeners)
+		{
+			this.imageUpdateListeners.add(listener);
+		}
+	}
+
+	/**
+	 * Removes an object which was notified of each update of the shared image.
+	 *
+	 * @param listener The listener.
+	 */
+	public void removeImageUpdateListener(ImageUpdateListener listener)
+	{
+		synchronized (this.imageUpdateListeners)
+		{
+			this.imageUpdateListeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Gets the pool which the images given to this controller are returned to.
+	 *
+	 * @return The image pool or {@code null}.
+	 */
+	public ImagePool getImagePool()
+	{
+		return this.imagePool;
+	}
+
+	/**
+	 * Sets the pool which the images given to this controller are returned to.
+	 * <p/>
+	 * The controller never keeps the images it is given: it copies the changed tiles into its own buffers. Once an image has been copied, or has been replaced by a newer image before being copied, it is returned to the pool, so that image sources which borrow their images from the same pool can reuse them.
+	 *
+	 * @param value The image pool or {@code null}.
+	 */
+	public void setImagePool(ImagePool value)
+	{
+		this.imagePool = value;
+	}
+
 	/**
 	 * Sets the image that should be shared by this controller.
 	 * <p/>
 	 * If the controller is active, this method will trigger a asynchronous update.
+	 * <p/>
+	 * The controller copies the image, so it is not kept after the update. If the image has been borrowed from the {@link #getImagePool() image pool}, it must not be changed after calling this method, since the controller returns it to the pool.
 	 *
 	 * @param bufferedImage The image or {@code null}.
 	 */
 	public void setImage(BufferedImage bufferedImage)
+	{
+		this.setImage(bufferedImage, (Rectangle[]) null);
+	}
+
+	/**
+	 * Sets the image that should be shared by this controller, telling which regions have changed since the previous image.
+	 * <p/>
+	 * Only the tiles which intersect the dirty regions are compared, so the cost of an update depends on the size of the changes rather than on the size of the image. Pixels outside of the dirty regions must be the same as in the previous image given to this controller, otherwise the changes may never be shared. If the previous image has not been processed yet, the dirty regions of both images are merged.
+	 *
+	 * @param bufferedImage The image or {@code null}.
+	 * @param dirtyRegions The regions which have changed, or {@code null} if the whole image should be compared.
+	 */
+	public void setImage(BufferedImage bufferedImage, Rectangle... dirtyRegions)
 	{
 		synchronized (this.imageLock)
 		{
+			// an image which has not been taken by the controller thread yet will never be.
+			if (!this.candidateImageTaken && this.candidateImage != null)
+			{
+				this.droppedImageCount++;
+				ImagePool imagePool = this.imagePool;
+				if (imagePool != null)
+				{
+					imagePool.returnImage(this.candidateImage);
+				}
+			}
+
+			// the changes of an image which has not been taken are carried over to the next one.
+			Rectangle[] newDirtyRegions = null;
+			if (dirtyRegions != null && (this.candidateImageTaken || this.candidateDirtyRegions != null))
+			{
+				int carriedOver = this.candidateImageTaken ? 0 : this.candidateDirtyRegions.length;
+				newDirtyRegions = new Rectangle[carriedOver + dirtyRegions.length];
+				if (carriedOver > 0)
+				{
+					System.arraycopy(this.candidateDirtyRegions, 0, newDirtyRegions, 0, carriedOver);
+				}
+				for (int i = 0; i < dirtyRegions.length; i++)
+				{
+					newDirtyRegions[carriedOver + i] = new Rectangle(dirtyRegions[i]);
+				}
+			}
+
 			this.candidateImage = bufferedImage;
+			this.candidateDirtyRegions = newDirtyRegions;
+			this.candidateImageTaken = false;
 			this.candidateImageNumber++;
+			if (this.updateSchedulingMode == UpdateSchedulingMode.EVENT_DRIVEN)
+			{
+				this.imageLock.notifyAll();
+			}
 		}
 	}
 
 	/**
-	 * Gets the image shared by this controller.
+	 * Gets the image most recently given to this controller.
+	 * <p/>
+	 * If the image has been borrowed from the {@link #getImagePool() image pool}, it may have already been returned to it.
 	 *
 	 * @return The image or {@code null}.
 	 */
@@ -137,6 +552,21 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 		return this.candidateImage;
 	}
 
+	/**
+	 * Gets the number of images which were replaced by a newer one before the controller thread took them, because the controller was not keeping up with the source.
+	 * <p/>
+	 * The changes of a dropped image are shared along with the image which replaced it, so no change is lost.
+	 *
+	 * @return The number of dropped images.
+	 */
+	public long getDroppedImageCount()
+	{
+		synchronized (this.imageLock)
+		{
+			return this.droppedImageCount;
+		}
+	}
+
 	public boolean waitUntilImageUpdated() throws InterruptedException
 	{
 		boolean result = false;
@@ -180,38 +610,48 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 		}
 
 		ImageChangesReport response;
-		synchronized (this.imageLock)
+		Frame frame = this.frame;
+		if (frame != null && frame.imageIdentifier.equals(imageIdentifier))
 		{
-			if (this.imageIdentifier != null && this.imageIdentifier.equals(imageIdentifier))
+			List<TilePosition> chosenTiles;
+			if (instant >= frame.maxTileTimestamp)
 			{
-				// calculate the number of tiles in both x and y axes.
-				int tilesXAxis = IntegerArithmetics.divideAndRoundUp(this.currentImage.getWidth(), this.tileWidth);
-				int tilesYAxis = IntegerArithmetics.divideAndRoundUp(this.currentImage.getHeight(), this.tileHeight);
-
-				// check for changed tiles since given instant.
-				long maxTileTimestamp = 0;
-				LinkedList<TilePosition> chosenTiles = new LinkedList<TilePosition>();
-				for (int tileX = 0; tileX < tilesXAxis; tileX++)
+				// nothing has changed since the given instant.
+				chosenTiles = Collections.emptyList();
+			}
+			else if (instant < frame.layoutTimestamp)
+			{
+				// every tile has changed since the given instant.
+				chosenTiles = frame.allTilePositions;
+			}
+			else if (instant >= frame.changeLogHorizon)
+			{
+				// all changes since the given instant are still in the change log.
+				chosenTiles = collectChangedTiles(frame, instant);
+			}
+			else
+			{
+				// the change log no longer goes back to the given instant, so all tiles are checked.
+				chosenTiles = new ArrayList<TilePosition>();
+				for (int tileX = 0; tileX < frame.tiles.length; tileX++)
 				{
-					for (int tileY = 0; tileY < tilesYAxis; tileY++)
+					for (int tileY = 0; tileY < frame.tiles[tileX].length; tileY++)
 					{
-						TileData tileData = this.tiles[tileX][tileY];
-						maxTileTimestamp = Math.max(maxTileTimestamp, tileData.whenLastUpdated);
-						if (tileData.whenLastUpdated > instant)
+						if (frame.tileTimestamps[tileX][tileY] > instant)
 						{
-							chosenTiles.add(new TilePosition(tileX, tileY));
+							chosenTiles.add(frame.tiles[tileX][tileY].position);
 						}
 					}
 				}
-
-				// the response is a report describing changed tiles in this shared image.
-				response = new ImageChangesReport(imageIdentifier, maxTileTimestamp, chosenTiles);
-			}
-			else
-			{
-				// a resposta indica que a tela já mudou, e portanto deve ser recarregada por inteiro.
-				response = null;
 			}
+
+			// the response is a report describing changed tiles in this shared image.
+			response = new ImageChangesReport(imageIdentifier, frame.maxTileTimestamp, chosenTiles);
+		}
+		else
+		{
+			// a resposta indica que a tela já mudou, e portanto deve ser recarregada por inteiro.
+			response = null;
 		}
 		return response;
 	}
@@ -232,25 +672,17 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 		}
 
 		TileImage response;
-		synchronized (this.imageLock)
+		Frame frame = this.frame;
+		if (frame != null && frame.imageIdentifier.equals(imageIdentifier))
 		{
-			if (this.imageIdentifier != null && this.imageIdentifier.equals(imageIdentifier))
-			{
-				if (tilePosition.getX() < 0 || this.tiles.length <= tilePosition.getX() || tilePosition.getY() < 0 || this.tiles[0].length <= tilePosition.getY())
-				{
-					throw new IndexOutOfBoundsException("The tile position must be within image boundaries!");
-				}
-
-				TileData tileData = this.tiles[tilePosition.getX()][tilePosition.getY()];
-				response = new TileImage(this.currentImage, tileData.x0, tileData.x1, tileData.y0, tileData.y1, tileData.whenLastUpdated);
-			}
-			else
-			{
-				response = null;
-			}
+			response = createTileImage(frame, tilePosition);
 		}
-		return response;
-	}
+		else
+		{
+			response = null;
+		}
+		return response;
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -259,16 +691,14 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 	public List<ImageIdentifier> getImageIdentifiers()
 	{
 		List<ImageIdentifier> result;
-		synchronized (this.imageLock)
+		Frame frame = this.frame;
+		if (frame != null)
 		{
-			if (this.imageIdentifier != null)
-			{
-				result = Collections.singletonList(this.imageIdentifier);
-			}
-			else
-			{
-				result = null;
-			}
+			result = Collections.singletonList(frame.imageIdentifier);
+		}
+		else
+		{
+			result = null;
 		}
 		return result;
 	}
@@ -285,31 +715,14 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 		}
 
 		ImageDescription response;
-		synchronized (this.imageLock)
+		Frame frame = this.frame;
+		if (frame != null && frame.imageIdentifier.equals(imageIdentifier))
 		{
-			if (this.imageIdentifier != null && this.imageIdentifier.equals(imageIdentifier))
-			{
-				// determina o número de peças.
-				int tilesXAxis = IntegerArithmetics.divideAndRoundUp(this.currentImage.getWidth(), this.tileWidth);
-				int tilesYAxis = IntegerArithmetics.divideAndRoundUp(this.currentImage.getHeight(), this.tileHeight);
-
-				// verifica qual o timestamp mais recente da tela.
-				long mostRecent = 0;
-				for (int tileX = 0; tileX < tilesXAxis; tileX++)
-				{
-					for (int tileY = 0; tileY < tilesYAxis; tileY++)
-					{
-						mostRecent = Math.max(this.tiles[tileX][tileY].whenLastUpdated, mostRecent);
-					}
-				}
-
-				// a resposta indica o token, o tamanho da tela e o timestamp mais recente.
-				response = new ImageDescription(this.imageIdentifier, this.currentImage.getWidth(), this.currentImage.getHeight(), this.tileWidth, this.tileHeight, mostRecent);
-			}
-			else
-			{
-				response = null;
-			}
+			response = frame.description;
+		}
+		else
+		{
+			response = null;
 		}
 		return response;
 	}
@@ -320,7 +733,8 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 	@Override
 	public ImageIdentifier getImageIdentifier()
 	{
-		return this.imageIdentifier;
+		Frame frame = this.frame;
+		return frame != null ? frame.imageIdentifier : null;
 	}
 
 	/**
@@ -329,37 +743,72 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 	@Override
 	public ImageDescription getImageDescription()
 	{
-		ImageIdentifier imageIdentifier = this.imageIdentifier;
-		if (imageIdentifier != null)
+		Frame frame = this.frame;
+		return frame != null ? frame.description : null;
+	}
+
+	private void run()
+	{
+		try
 		{
-			return this.getImageDescription(this.imageIdentifier);
+			this.runLoop();
 		}
-		else
+		finally
 		{
-			return null;
+			if (this.ownComparisonExecutor != null)
+			{
+				this.ownComparisonExecutor.shutdown();
+				this.ownComparisonExecutor = null;
+			}
 		}
 	}
 
-	private void run()
+	private void runLoop()
 	{
-		// polls the buffered image for changes.
-		long targetTimestamp = this.timeQuantum * (this.getTimestamp() / this.timeQuantum);
+		// polls the buffered image for changes, or waits until it is set.
+		long pollingInterval = this.pollingInterval;
+		long targetTimestamp = pollingInterval * (this.getTimestamp() / pollingInterval);
+		long lastUpdateTimestamp = 0;
 		while (true)
 		{
-			// waits until the next timestamp.
 			long currentTimestamp = this.getTimestamp();
 			synchronized (this.imageLock)
 			{
 				boolean continueRunning = this.shouldRun;
-				while (currentTimestamp < targetTimestamp)
+				while (continueRunning)
 				{
-					if (!continueRunning)
+					long waitTime;
+					if (this.updateSchedulingMode == UpdateSchedulingMode.EVENT_DRIVEN)
+					{
+						// waits until a new image is set, and then until the minimum interval since the last update has passed.
+						if (this.candidateImageNumber > this.currentImageNumber)
+						{
+							waitTime = lastUpdateTimestamp + this.minimumUpdateInterval - currentTimestamp;
+						}
+						else
+						{
+							waitTime = Long.MAX_VALUE;
+						}
+					}
+					else
+					{
+						// waits until the next timestamp.
+						waitTime = targetTimestamp - currentTimestamp;
+					}
+					if (waitTime <= 0)
 					{
 						break;
 					}
 					try
 					{
-						this.imageLock.wait(targetTimestamp - currentTimestamp);
+						if (waitTime == Long.MAX_VALUE)
+						{
+							this.imageLock.wait();
+						}
+						else
+						{
+							this.imageLock.wait(waitTime);
+						}
 					}
 					catch (InterruptedException e)
 					{
@@ -378,24 +827,41 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 			boolean hasCandidate;
 			int targetNumber;
 			BufferedImage candidate;
+			Rectangle[] dirtyRegions;
 			synchronized (this.imageLock)
 			{
 				hasCandidate = this.candidateImageNumber > this.currentImageNumber;
 				targetNumber = this.candidateImageNumber;
 				candidate = this.candidateImage;
+				dirtyRegions = this.candidateDirtyRegions;
+				this.candidateImageTaken = true;
 			}
 
 			if (hasCandidate)
 			{
-				this.updateImage(candidate, targetNumber, this.getTimestamp());
+				// the timestamps must strictly increase, otherwise a report could miss the changes of an update made within the same millisecond.
+				lastUpdateTimestamp = Math.max(this.getTimestamp(), lastUpdateTimestamp + 1);
+				try
+				{
+					this.updateImage(candidate, dirtyRegions, targetNumber, lastUpdateTimestamp);
+				}
+				finally
+				{
+					ImagePool imagePool = this.imagePool;
+					if (imagePool != null)
+					{
+						imagePool.returnImage(candidate);
+					}
+				}
 			}
 
 			// calculates the next timestamp.
+			pollingInterval = this.pollingInterval;
 			currentTimestamp = this.getTimestamp();
-			targetTimestamp += this.timeQuantum;
+			targetTimestamp += pollingInterval;
 			while (targetTimestamp < currentTimestamp)
 			{
-				targetTimestamp += this.timeQuantum;
+				targetTimestamp += pollingInterval;
 			}
 		}
 	}
@@ -404,127 +870,543 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 	 * Updates the shared image.
 	 *
 	 * @param image The next shared image.
+	 * @param dirtyRegions The regions which have changed, or {@code null} if the whole image should be compared.
 	 * @param imageNumber The next image number.
 	 * @param timestamp The image timestamp.
 	 */
-	private void updateImage(BufferedImage image, int imageNumber, long timestamp)
+	private void updateImage(BufferedImage image, Rectangle[] dirtyRegions, int imageNumber, long timestamp)
 	{
+		Frame frame = this.frame;
 		if (image != null)
 		{
+			boolean hashTiles = this.changeDetectionMode == ChangeDetectionMode.CONTENT_HASH;
+			FrameStorageMode storageMode = this.frameStorageMode;
+
+			// determines the desired tile geometry, restarting from the configured one if it has changed.
+			int tileWidth;
+			int tileHeight;
+			synchronized (this.imageLock)
+			{
+				tileWidth = this.tileWidth;
+				tileHeight = this.tileHeight;
+			}
+			if (this.adaptiveBaseTileWidth != tileWidth || this.adaptiveBaseTileHeight != tileHeight)
+			{
+				this.adaptiveBaseTileWidth = tileWidth;
+				this.adaptiveBaseTileHeight = tileHeight;
+				this.adaptiveTileWidth = tileWidth;
+				this.adaptiveTileHeight = tileHeight;
+			}
+			if (this.adaptiveTileSize)
+			{
+				tileWidth = this.adaptiveTileWidth;
+				tileHeight = this.adaptiveTileHeight;
+			}
+
 			// sincroniza só na hora de atualizar de fato.
-			if (this.currentImage == null || this.currentImage.getWidth() != image.getWidth() || this.currentImage.getHeight() != image.getHeight())
+			if (frame == null || frame.buffer.getWidth() != image.getWidth() || frame.buffer.getHeight() != image.getHeight() || frame.tileWidth != tileWidth || frame.tileHeight != tileHeight)
 			{
-				// não havia tela antes ou havia e o tamanho mudou.
+				// não havia tela antes, ou havia e o tamanho da tela ou das peças mudou.
 
 				// determina quantos setores no eixo X e quantos setores no eixo Y.
-				int tilesXAxis = IntegerArithmetics.divideAndRoundUp(image.getWidth(), this.tileWidth);
-				int tilesYAxis = IntegerArithmetics.divideAndRoundUp(image.getHeight(), this.tileHeight);
+				int tilesXAxis = IntegerArithmetics.divideAndRoundUp(image.getWidth(), tileWidth);
+				int tilesYAxis = IntegerArithmetics.divideAndRoundUp(image.getHeight(), tileHeight);
 
 				// recria a matriz de peças.
 				TileData[][] newTiles = new TileData[tilesXAxis][tilesYAxis];
+				long[][] newTileTimestamps = new long[tilesXAxis][tilesYAxis];
+				ArrayList<TilePosition> newTilePositions = new ArrayList<TilePosition>(tilesXAxis * tilesYAxis);
 				for (int tileX = 0; tileX < tilesXAxis; tileX++)
 				{
 					for (int tileY = 0; tileY < tilesYAxis; tileY++)
 					{
 						// determina os cantos da peça atual.
-						int x0 = tileX * this.tileWidth;
-						int y0 = tileY * this.tileHeight;
-						int x1 = Math.min(x0 + this.tileWidth, image.getWidth());
-						int y1 = Math.min(y0 + this.tileHeight, image.getHeight());
+						int x0 = tileX * tileWidth;
+						int y0 = tileY * tileHeight;
+						int x1 = Math.min(x0 + tileWidth, image.getWidth());
+						int y1 = Math.min(y0 + tileHeight, image.getHeight());
 
 						// instancia a peça.
-						newTiles[tileX][tileY] = new TileData(x0, y0, x1, y1, timestamp);
+						newTiles[tileX][tileY] = new TileData(TilePosition.valueOf(tileX, tileY), x0, y0, x1, y1);
+						newTileTimestamps[tileX][tileY] = timestamp;
+						newTilePositions.add(newTiles[tileX][tileY].position);
 					}
 				}
 
-				// substitui os dados antigos pelos novos.
-				synchronized (this.imageLock)
+				// calculates the hashes the next image will be compared against.
+				if (hashTiles)
 				{
-					this.imageIdentifier = ImageIdentifier.valueOf(String.valueOf(this.nextImageNumber++));
-					this.currentImage = image;
-					this.currentImageNumber = imageNumber;
-					this.tiles = newTiles;
+					RunOnceRunnable<CompareTileTask>[][] tasks = this.createCompareTileTasks(newTiles, null, null, image, false, true);
+					this.runCompareTileTasks(tasks);
+					for (int tileX = 0; tileX < tilesXAxis; tileX++)
+					{
+						for (int tileY = 0; tileY < tilesYAxis; tileY++)
+						{
+							newTiles[tileX][tileY].contentHash = tasks[tileX][tileY].getAction().getContentHash();
+						}
+					}
 				}
+				this.tileHashesValid = hashTiles;
+				this.tileHashesImageType = image.getType();
+				this.lastFullComparisonTimestamp = timestamp;
+
+				// copies the whole image to a buffer owned by this controller. the buffers of the previous layout are left to the readers which may still hold them.
+				FrameBuffer frontBuffer = FrameBuffer.allocate(image.getWidth(), image.getHeight(), storageMode);
+				frontBuffer.copyFrom(image, PixelRaster.valueOf(image), 0, 0, image.getWidth(), image.getHeight());
+				this.backBuffer = null;
+				this.backBufferStaleTiles = null;
+
+				// substitui os dados antigos pelos novos.
+				ImageIdentifier imageIdentifier = ImageIdentifier.valueOf(String.valueOf(this.nextImageNumber++));
+				Frame newFrame = new Frame(imageIdentifier, frontBuffer, tileWidth, tileHeight, newTiles, newTileTimestamps, timestamp, timestamp, Collections.unmodifiableList(newTilePositions), new ChangeBatch[0], timestamp);
+				this.notifyImageUpdateListeners(newFrame, timestamp, newFrame.allTilePositions, true);
+				this.frame = newFrame;
+
+				// the change density must be measured again for the new geometry.
+				this.adaptiveUpdateCount = 0;
+				this.adaptiveChangeDensity = 0;
+				this.adaptiveChangedTiles = 0;
 			}
 			else
 			{
-				int tilesXAxis = IntegerArithmetics.divideAndRoundUp(image.getWidth(), this.tileWidth);
-				int tilesYAxis = IntegerArithmetics.divideAndRoundUp(image.getHeight(), this.tileHeight);
+				int tilesXAxis = frame.tiles.length;
+				int tilesYAxis = frame.tiles[0].length;
 
-				// somente esta thread é escritora, então aqui é garantido que ler é seguro.
-				RunOnceRunnable<CompareTileTask>[][] tasks = new RunOnceRunnable[tilesXAxis][tilesYAxis];
-				for (int tileX = 0; tileX < tilesXAxis; tileX++)
+				// the hashes can only be compared if they were calculated for the current image, from the same kind of raster.
+				boolean compareHashes = hashTiles && this.tileHashesValid && this.tileHashesImageType == image.getType();
+
+				// the dirty regions, if any, are trusted unless a full comparison is due. when the hashes must be recalculated, every tile is compared.
+				boolean[][] tilesToCompare = null;
+				long fullComparisonInterval = this.fullComparisonInterval;
+				if (dirtyRegions != null && (compareHashes || !hashTiles) && (fullComparisonInterval == 0 || timestamp - this.lastFullComparisonTimestamp < fullComparisonInterval))
 				{
-					for (int tileY = 0; tileY < tilesYAxis; tileY++)
-					{
-						tasks[tileX][tileY] = new RunOnceRunnable<CompareTileTask>(new CompareTileTask(this.tiles[tileX][tileY], this.currentImage, image));
-					}
+					tilesToCompare = findDirtyTiles(frame, dirtyRegions);
 				}
-
-				// TODO optimize this by running the tasks in multi-threaded workers.
-				for (int tileX = 0; tileX < tilesXAxis; tileX++)
+				else
 				{
-					for (int tileY = 0; tileY < tilesYAxis; tileY++)
-					{
-						tasks[tileX][tileY].run();
-					}
+					this.lastFullComparisonTimestamp = timestamp;
 				}
 
-				// wait until all tasks have finished.
+				// somente esta thread é escritora, então aqui é garantido que ler é seguro.
+				RunOnceRunnable<CompareTileTask>[][] tasks = this.createCompareTileTasks(frame.tiles, tilesToCompare, compareHashes ? null : frame.buffer, image, compareHashes, hashTiles);
+				this.runCompareTileTasks(tasks);
+
+				// collect the image changes, copying only the timestamps of the columns which have changed.
+				long[][] newTileTimestamps = frame.tileTimestamps.clone();
+				ArrayList<TilePosition> changedTiles = null;
 				for (int tileX = 0; tileX < tilesXAxis; tileX++)
 				{
 					for (int tileY = 0; tileY < tilesYAxis; tileY++)
 					{
-						while (true)
+						if (tasks[tileX][tileY] == null)
+						{
+							continue;
+						}
+						CompareTileTask task = tasks[tileX][tileY].getAction();
+						if (task.getComparisonResult().booleanValue() == false)
 						{
-							try
+							if (changedTiles == null)
 							{
-								tasks[tileX][tileY].join();
-								break;
+								changedTiles = new ArrayList<TilePosition>();
 							}
-							catch (InterruptedException e)
+							if (newTileTimestamps[tileX] == frame.tileTimestamps[tileX])
 							{
+								newTileTimestamps[tileX] = frame.tileTimestamps[tileX].clone();
 							}
+							newTileTimestamps[tileX][tileY] = timestamp;
+							changedTiles.add(frame.tiles[tileX][tileY].position);
+						}
+						if (hashTiles)
+						{
+							frame.tiles[tileX][tileY].contentHash = task.getContentHash();
 						}
 					}
 				}
+				this.tileHashesValid = hashTiles;
+				this.tileHashesImageType = image.getType();
 
-				// apply the image changes.
-				synchronized (this.imageLock)
+				// apply the image changes, publishing a new frame.
+				if (changedTiles != null)
 				{
-					int changedTileCount = 0;
-					for (int tileX = 0; tileX < tilesXAxis; tileX++)
+					// brings the back buffer up to date, then copies the changed tiles to it.
+					// a back buffer kept in the wrong place is replaced, so a change of storage mode takes effect after two updates.
+					FrameBuffer backBuffer = this.backBuffer;
+					if (backBuffer == null || backBuffer.getStorageMode() != storageMode)
 					{
-						for (int tileY = 0; tileY < tilesYAxis; tileY++)
+						backBuffer = FrameBuffer.allocate(image.getWidth(), image.getHeight(), storageMode);
+						backBuffer.copyFrom(frame.buffer, 0, 0, image.getWidth(), image.getHeight());
+					}
+					else if (this.backBufferStaleTiles == null)
+					{
+						backBuffer.copyFrom(frame.buffer, 0, 0, image.getWidth(), image.getHeight());
+					}
+					else
+					{
+						for (TilePosition tilePosition : this.backBufferStaleTiles)
 						{
-							if (tasks[tileX][tileY].getAction().getComparisonResult().booleanValue() == false)
-							{
-								changedTileCount++;
-								this.tiles[tileX][tileY].whenLastUpdated = timestamp;
-							}
+							TileData tile = frame.tiles[tilePosition.getX()][tilePosition.getY()];
+							backBuffer.copyFrom(frame.buffer, tile.x0, tile.y0, tile.x1, tile.y1);
 						}
 					}
-					if (changedTileCount > 0)
+					PixelRaster raster = PixelRaster.valueOf(image);
+					for (TilePosition tilePosition : changedTiles)
 					{
-						this.currentImage = image;
+						TileData tile = frame.tiles[tilePosition.getX()][tilePosition.getY()];
+						backBuffer.copyFrom(image, raster, tile.x0, tile.y0, tile.x1, tile.y1);
 					}
-					this.currentImageNumber = imageNumber;
+
+					// the buffers are swapped. readers of the previous frame keep reading the old front buffer, which is only written to on the next update with changes, and only on tiles which will then have newer timestamps. so a reader which is that far behind may see a partially updated tile, but it will also see the tile reported as changed again.
+					this.backBuffer = frame.buffer;
+					this.backBufferStaleTiles = changedTiles;
+
+					ChangeBatch[] changeLog = frame.changeLog;
+					int discarded = changeLog.length < CHANGE_LOG_CAPACITY ? 0 : 1;
+					ChangeBatch[] newChangeLog = new ChangeBatch[changeLog.length - discarded + 1];
+					System.arraycopy(changeLog, discarded, newChangeLog, 0, changeLog.length - discarded);
+					newChangeLog[newChangeLog.length - 1] = new ChangeBatch(timestamp, Collections.unmodifiableList(changedTiles));
+					long changeLogHorizon = discarded > 0 ? changeLog[0].timestamp : frame.changeLogHorizon;
+
+					Frame newFrame = new Frame(frame.imageIdentifier, backBuffer, frame.tileWidth, frame.tileHeight, frame.tiles, newTileTimestamps, frame.layoutTimestamp, timestamp, frame.allTilePositions, newChangeLog, changeLogHorizon);
+					this.notifyImageUpdateListeners(newFrame, timestamp, newChangeLog[newChangeLog.length - 1].tiles, false);
+					this.frame = newFrame;
+				}
+				else
+				{
+					this.notifyImageUpdateListeners(frame, timestamp, Collections.<TilePosition> emptyList(), false);
+				}
+
+				if (this.adaptiveTileSize)
+				{
+					this.adaptTileSize(changedTiles != null ? changedTiles.size() : 0, tilesXAxis * tilesYAxis, frame.tileWidth, frame.tileHeight);
 				}
 			}
 		}
 		else
 		{
-			synchronized (this.imageLock)
+			if (frame != null)
+			{
+				this.frame = null;
+				this.backBuffer = null;
+				this.backBufferStaleTiles = null;
+				this.tileHashesValid = false;
+			}
+		}
+
+		synchronized (this.imageLock)
+		{
+			this.currentImageNumber = imageNumber;
+		}
+	}
+
+	/**
+	 * Notifies the image update listeners of an update.
+	 *
+	 * @param frame The frame which is about to be published.
+	 * @param timestamp The update timestamp.
+	 * @param changedTiles The tiles changed by the update.
+	 * @param newImage If the update has created a new image.
+	 */
+	private void notifyImageUpdateListeners(final Frame frame, long timestamp, List<TilePosition> changedTiles, boolean newImage)
+	{
+		ImageUpdateListener[] listeners;
+		synchronized (this.imageUpdateListeners)
+		{
+			if (this.imageUpdateListeners.isEmpty())
+			{
+				return;
+			}
+			listeners = this.imageUpdateListeners.toArray(new ImageUpdateListener[this.imageUpdateListeners.size()]);
+		}
+
+		ImageUpdate update = new ImageUpdate(frame.description, timestamp, changedTiles, frame.allTilePositions.size(), newImage)
+		{
+			@Override
+			public TileImage getTileImage(TilePosition tilePosition)
+			{
+				return createTileImage(frame, tilePosition);
+			}
+		};
+		for (ImageUpdateListener listener : listeners)
+		{
+			try
+			{
+				listener.imageUpdated(update);
+			}
+			catch (RuntimeException e)
+			{
+				// a failing listener must not stop the controller thread.
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates the image of a single tile of a frame.
+	 *
+	 * @param frame The frame.
+	 * @param tilePosition The tile position.
+	 * @return The tile image.
+	 */
+	private static TileImage createTileImage(Frame frame, TilePosition tilePosition)
+	{
+		if (tilePosition.getX() < 0 || frame.tiles.length <= tilePosition.getX() || tilePosition.getY() < 0 || frame.tiles[0].length <= tilePosition.getY())
+		{
+			throw new IndexOutOfBoundsException("The tile position must be within image boundaries!");
+		}
+
+		TileData tileData = frame.tiles[tilePosition.getX()][tilePosition.getY()];
+		return new TileImage(frame.buffer.getPixels(), 0, frame.buffer.getScanlineStride(), tileData.x0, tileData.x1, tileData.y0, tileData.y1, frame.tileTimestamps[tilePosition.getX()][tilePosition.getY()]);
+	}
+
+	/**
+	 * Finds the tiles which intersect a set of dirty regions.
+	 *
+	 * @param frame The frame.
+	 * @param dirtyRegions The dirty regions.
+	 * @return A matrix telling, for each tile, whether it intersects any dirty region.
+	 */
+	private static boolean[][] findDirtyTiles(Frame frame, Rectangle[] dirtyRegions)
+	{
+		int tilesXAxis = frame.tiles.length;
+		int tilesYAxis = frame.tiles[0].length;
+		Rectangle bounds = new Rectangle(0, 0, frame.buffer.getWidth(), frame.buffer.getHeight());
+		boolean[][] dirtyTiles = new boolean[tilesXAxis][tilesYAxis];
+		for (Rectangle dirtyRegion : dirtyRegions)
+		{
+			Rectangle region = dirtyRegion.intersection(bounds);
+			if (region.isEmpty())
+			{
+				continue;
+			}
+			int lastTileX = (region.x + region.width - 1) / frame.tileWidth;
+			int lastTileY = (region.y + region.height - 1) / frame.tileHeight;
+			for (int tileX = region.x / frame.tileWidth; tileX <= lastTileX; tileX++)
+			{
+				for (int tileY = region.y / frame.tileHeight; tileY <= lastTileY; tileY++)
+				{
+					dirtyTiles[tileX][tileY] = true;
+				}
+			}
+		}
+		return dirtyTiles;
+	}
+
+	/**
+	 * Collects the tiles changed after a given instant from the change log of a frame.
+	 * <p/>
+	 * The cost of this method depends only on the number of changes after the instant, not on the number of tiles.
+	 *
+	 * @param frame The frame.
+	 * @param instant The instant, which must not be before the horizon of the change log.
+	 * @return A read-only list of the changed tiles.
+	 */
+	private static List<TilePosition> collectChangedTiles(Frame frame, long instant)
+	{
+		ChangeBatch[] changeLog = frame.changeLog;
+
+		// finds the oldest batch after the instant.
+		int firstBatch = changeLog.length;
+		while (firstBatch > 0 && changeLog[firstBatch - 1].timestamp > instant)
+		{
+			firstBatch--;
+		}
+
+		// a single batch can be reported as is.
+		if (firstBatch == changeLog.length - 1)
+		{
+			return changeLog[firstBatch].tiles;
+		}
+
+		// otherwise, the batches are merged, keeping only one entry for each tile.
+		int tilesYAxis = frame.tiles[0].length;
+		BitSet reported = new BitSet(frame.tiles.length * tilesYAxis);
+		ArrayList<TilePosition> chosenTiles = new ArrayList<TilePosition>();
+		for (int batch = changeLog.length - 1; batch >= firstBatch; batch--)
+		{
+			for (TilePosition tilePosition : changeLog[batch].tiles)
+			{
+				int tileIndex = tilePosition.getX() * tilesYAxis + tilePosition.getY();
+				if (!reported.get(tileIndex))
+				{
+					reported.set(tileIndex);
+					chosenTiles.add(tilePosition);
+				}
+			}
+		}
+		return Collections.unmodifiableList(chosenTiles);
+	}
+
+	/**
+	 * Chooses the tile geometry of the next layout from the density of recent changes.
+	 * <p/>
+	 * Screens where most tiles change at once (such as videos) are better shared with larger tiles, which require fewer requests. Screens where only a few tiles change at once (such as a blinking cursor or a clock) are better shared with smaller tiles, which require fewer bytes.
+	 * <p/>
+	 * Since every change of geometry forces the viewers to reload the whole image, the geometry is only reconsidered after a number of updates.
+	 *
+	 * @param changedTileCount The number of tiles changed by the last update.
+	 * @param tileCount The number of tiles.
+	 * @param tileWidth The current tile width.
+	 * @param tileHeight The current tile height.
+	 */
+	private void adaptTileSize(int changedTileCount, int tileCount, int tileWidth, int tileHeight)
+	{
+		// updates without changes say nothing about how the screen changes.
+		if (changedTileCount == 0)
+		{
+			return;
+		}
+
+		double density = (double) changedTileCount / tileCount;
+		this.adaptiveUpdateCount++;
+		int weight = Math.min(this.adaptiveUpdateCount, ADAPTIVE_UPDATES_PER_DECISION);
+		this.adaptiveChangeDensity += (density - this.adaptiveChangeDensity) / weight;
+		this.adaptiveChangedTiles += (changedTileCount - this.adaptiveChangedTiles) / weight;
+		if (this.adaptiveUpdateCount < ADAPTIVE_UPDATES_PER_DECISION)
+		{
+			return;
+		}
+
+		if (this.adaptiveChangeDensity > ADAPTIVE_DENSE_CHANGES && tileWidth * 2 <= MAX_ADAPTIVE_TILE_SIZE && tileHeight * 2 <= MAX_ADAPTIVE_TILE_SIZE)
+		{
+			this.adaptiveTileWidth = tileWidth * 2;
+			this.adaptiveTileHeight = tileHeight * 2;
+		}
+		else if ((this.adaptiveChangeDensity < ADAPTIVE_SPARSE_CHANGES || this.adaptiveChangedTiles <= ADAPTIVE_FEW_CHANGED_TILES) && tileWidth / 2 >= MIN_ADAPTIVE_TILE_SIZE && tileHeight / 2 >= MIN_ADAPTIVE_TILE_SIZE)
+		{
+			this.adaptiveTileWidth = tileWidth / 2;
+			this.adaptiveTileHeight = tileHeight / 2;
+		}
+		else
+		{
+			this.adaptiveUpdateCount = 0;
+		}
+	}
+
+	/**
+	 * Creates the tasks which compare each tile of the shared image against a new image.
+	 *
+	 * @param tiles The tiles.
+	 * @param tilesToCompare Which tiles should be compared, or {@code null} if all of them should.
+	 * @param previousBuffer The buffer of the shared image, if the tiles should be compared pixel by pixel, or {@code null}.
+	 * @param image The new image.
+	 * @param compareHashes If the tiles should be compared by their hashes.
+	 * @param calculateHashes If the hashes of the tiles of the new image should be calculated.
+	 * @return The tasks, which are {@code null} for the tiles which should not be compared.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private RunOnceRunnable<CompareTileTask>[][] createCompareTileTasks(TileData[][] tiles, boolean[][] tilesToCompare, FrameBuffer previousBuffer, BufferedImage image, boolean compareHashes, boolean calculateHashes)
+	{
+		// reads the backing array of the new image directly if possible.
+		PixelRaster newRaster = PixelRaster.valueOf(image);
+
+		RunOnceRunnable<CompareTileTask>[][] tasks = new RunOnceRunnable[tiles.length][];
+		for (int tileX = 0; tileX < tiles.length; tileX++)
+		{
+			tasks[tileX] = new RunOnceRunnable[tiles[tileX].length];
+			for (int tileY = 0; tileY < tiles[tileX].length; tileY++)
 			{
-				if (this.currentImage != null)
+				if (tilesToCompare != null && !tilesToCompare[tileX][tileY])
 				{
-					this.currentImage = null;
-					this.imageIdentifier = null;
-					this.tiles = null;
+					continue;
 				}
-				this.currentImageNumber = imageNumber;
+				tasks[tileX][tileY] = new RunOnceRunnable<CompareTileTask>(new CompareTileTask(tiles[tileX][tileY], previousBuffer, image, newRaster, compareHashes, calculateHashes));
 			}
 		}
+		return tasks;
+	}
+
+	/**
+	 * Runs the tasks which compare the tiles, and waits until all of them have finished.
+	 *
+	 * @param tasks The tasks, which may be {@code null} for the tiles which should not be compared.
+	 */
+	private void runCompareTileTasks(RunOnceRunnable<CompareTileTask>[][] tasks)
+	{
+		// hand the tasks to the worker threads, then run whatever they have not picked up yet.
+		Executor executor = this.getEffectiveComparisonExecutor();
+		if (executor != null)
+		{
+			try
+			{
+				for (int tileX = 0; tileX < tasks.length; tileX++)
+				{
+					for (int tileY = 0; tileY < tasks[tileX].length; tileY++)
+					{
+						if (tasks[tileX][tileY] != null)
+						{
+							executor.execute(tasks[tileX][tileY]);
+						}
+					}
+				}
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the remaining tasks are run by this thread below.
+			}
+		}
+		for (int tileX = 0; tileX < tasks.length; tileX++)
+		{
+			for (int tileY = 0; tileY < tasks[tileX].length; tileY++)
+			{
+				if (tasks[tileX][tileY] != null)
+				{
+					tasks[tileX][tileY].run();
+				}
+			}
+		}
+
+		// wait until all tasks have finished.
+		for (int tileX = 0; tileX < tasks.length; tileX++)
+		{
+			for (int tileY = 0; tileY < tasks[tileX].length; tileY++)
+			{
+				if (tasks[tileX][tileY] == null)
+				{
+					continue;
+				}
+				while (true)
+				{
+					try
+					{
+						tasks[tileX][tileY].join();
+						break;
+					}
+					catch (InterruptedException e)
+					{
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the executor which should run the tile comparison tasks.
+	 * <p/>
+	 * This method must only be called by the controller thread.
+	 *
+	 * @return The executor or {@code null} if the tiles should be compared by the controller thread alone.
+	 */
+	private Executor getEffectiveComparisonExecutor()
+	{
+		Executor executor = this.comparisonExecutor;
+		if (executor == null)
+		{
+			if (this.ownComparisonExecutor == null && this.comparisonThreadCount > 1)
+			{
+				this.ownComparisonExecutor = Executors.newFixedThreadPool(this.comparisonThreadCount, new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			executor = this.ownComparisonExecutor;
+		}
+		return executor;
 	}
 
 	private long getTimestamp()
@@ -538,33 +1420,93 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 		public final int x1;
 		public final int y0;
 		public final int y1;
+		public final TilePosition position;
 
-		public volatile long whenLastUpdated;
+		public volatile long contentHash;
 
-		public TileData(int x0, int y0, int x1, int y1, long whenLastUpdated)
+		public TileData(TilePosition position, int x0, int y0, int x1, int y1)
 		{
+			this.position = position;
 			this.x0 = x0;
 			this.x1 = x1;
 			this.y0 = y0;
 			this.y1 = y1;
-			this.whenLastUpdated = whenLastUpdated;
 		}
 
 	}
 
+	/**
+	 * An immutable snapshot of the shared image, published by the controller thread after each update.
+	 * <p/>
+	 * Readers only look at the most recently published frame, so they never block each other nor the controller thread.
+	 */
+	private static final class Frame
+	{
+		public final ImageIdentifier imageIdentifier;
+		public final FrameBuffer buffer;
+		public final int tileWidth;
+		public final int tileHeight;
+		public final TileData[][] tiles;
+		public final long[][] tileTimestamps;
+		public final long layoutTimestamp;
+		public final long maxTileTimestamp;
+		public final List<TilePosition> allTilePositions;
+		public final ChangeBatch[] changeLog;
+		public final long changeLogHorizon;
+		public final ImageDescription description;
+
+		public Frame(ImageIdentifier imageIdentifier, FrameBuffer buffer, int tileWidth, int tileHeight, TileData[][] tiles, long[][] tileTimestamps, long layoutTimestamp, long maxTileTimestamp, List<TilePosition> allTilePositions, ChangeBatch[] changeLog, long changeLogHorizon)
+		{
+			this.imageIdentifier = imageIdentifier;
+			this.buffer = buffer;
+			this.tileWidth = tileWidth;
+			this.tileHeight = tileHeight;
+			this.tiles = tiles;
+			this.tileTimestamps = tileTimestamps;
+			this.layoutTimestamp = layoutTimestamp;
+			this.maxTileTimestamp = maxTileTimestamp;
+			this.allTilePositions = allTilePositions;
+			this.changeLog = changeLog;
+			this.changeLogHorizon = changeLogHorizon;
+			this.description = new ImageDescription(imageIdentifier, buffer.getWidth(), buffer.getHeight(), tileWidth, tileHeight, maxTileTimestamp);
+		}
+	}
+
+	/**
+	 * The tiles changed by a single update.
+	 */
+	private static final class ChangeBatch
+	{
+		public final long timestamp;
+		public final List<TilePosition> tiles;
+
+		public ChangeBatch(long timestamp, List<TilePosition> tiles)
+		{
+			this.timestamp = timestamp;
+			this.tiles = tiles;
+		}
+	}
+
 	private static final class CompareTileTask implements Runnable
 	{
 		private final TileData tile;
-		private final BufferedImage image0;
+		private final FrameBuffer buffer0;
 		private final BufferedImage image1;
+		private final PixelRaster raster1;
+		private final boolean compareHashes;
+		private final boolean calculateHash;
 
 		private volatile Boolean comparisonResult;
+		private volatile long contentHash;
 
-		public CompareTileTask(TileData tile, BufferedImage image0, BufferedImage image1)
+		public CompareTileTask(TileData tile, FrameBuffer buffer0, BufferedImage image1, PixelRaster raster1, boolean compareHashes, boolean calculateHash)
 		{
 			this.tile = tile;
-			this.image0 = image0;
+			this.buffer0 = buffer0;
 			this.image1 = image1;
+			this.raster1 = raster1;
+			this.compareHashes = compareHashes;
+			this.calculateHash = calculateHash;
 		}
 
 		public Boolean getComparisonResult()
@@ -572,33 +1514,42 @@ public class BufferedImageSharingController implements SingleImageSharingControl
 			return this.comparisonResult;
 		}
 
+		public long getContentHash()
+		{
+			return this.contentHash;
+		}
+
 		@Override
 		public void run()
 		{
 			boolean result = false;
 			try
 			{
-				result = this.doImagesMatch();
-			}
-			finally
-			{
-				this.comparisonResult = Boolean.valueOf(result);
-			}
-		}
-
-		private boolean doImagesMatch()
-		{
-			for (int pixelY = this.tile.y0; pixelY < this.tile.y1; pixelY++)
-			{
-				for (int pixelX = this.tile.x0; pixelX < this.tile.x1; pixelX++)
+				if (this.calculateHash)
 				{
-					if (this.image0.getRGB(pixelX, pixelY) != this.image1.getRGB(pixelX, pixelY))
+					if (this.raster1 != null)
+					{
+						this.contentHash = PixelHash.hash(this.raster1, this.tile.x0, this.tile.y0, this.tile.x1, this.tile.y1);
+					}
+					else
 					{
-						return false;
+						this.contentHash = PixelHash.hash(this.image1, this.tile.x0, this.tile.y0, this.tile.x1, this.tile.y1);
 					}
 				}
+
+				if (this.compareHashes)
+				{
+					result = this.contentHash == this.tile.contentHash;
+				}
+				else if (this.buffer0 != null)
+				{
+					result = this.buffer0.regionEquals(this.image1, this.raster1, this.tile.x0, this.tile.y0, this.tile.x1, this.tile.y1);
+				}
+			}
+			finally
+			{
+				this.comparisonResult = Boolean.valueOf(result);
 			}
-			return true;
 		}
 	}
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.controller;
+
+import imagesharing.util.PixelRaster;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The pixels of a shared image, owned by a {@link BufferedImageSharingController}.
+ * <p/>
+ * The pixels are kept as one {@code int} per pixel, in the same layout as a {@link BufferedImage#TYPE_INT_RGB} image, either in an array on the heap or in a direct buffer outside of it.
+ * <p/>
+ * Only the controller thread writes to a frame buffer. Other threads may only read it through the {@link #getPixels() read-only view}.
+ *
+ * @author Felipe Michels Fontoura
+ */
+final class FrameBuffer
+{
+	private static final int RGB_MASK = 0x00FFFFFF;
+
+	/**
+	 * Allocates a frame buffer.
+	 *
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param storageMode Where the pixels should be kept.
+	 * @return The frame buffer, whose contents are undefined.
+	 */
+	public static FrameBuffer allocate(int width, int height, FrameStorageMode storageMode)
+	{
+		IntBuffer pixels;
+		if (storageMode == FrameStorageMode.DIRECT)
+		{
+			pixels = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		else
+		{
+			pixels = IntBuffer.allocate(width * height);
+		}
+		return new FrameBuffer(width, height, storageMode, pixels);
+	}
+
+	private final int width;
+	private final int height;
+	private final FrameStorageMode storageMode;
+	private final IntBuffer pixels;
+	private final IntBuffer readOnlyPixels;
+
+	private FrameBuffer(int width, int height, FrameStorageMode storageMode, IntBuffer pixels)
+	{
+		this.width = width;
+		this.height = height;
+		this.storageMode = storageMode;
+		this.pixels = pixels;
+		this.readOnlyPixels = pixels.asReadOnlyBuffer();
+	}
+
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	public int getHeight()
+	{
+		return this.height;
+	}
+
+	public FrameStorageMode getStorageMode()
+	{
+		return this.storageMode;
+	}
+
+	/**
+	 * Gets the distance, in pixels, between two vertically adjacent pixels.
+	 *
+	 * @return The scanline stride.
+	 */
+	public int getScanlineStride()
+	{
+		return this.width;
+	}
+
+	/**
+	 * Gets a read-only view of the pixels, with its own position and limit.
+	 *
+	 * @return The view.
+	 */
+	public IntBuffer getPixels()
+	{
+		return this.readOnlyPixels.duplicate();
+	}
+
+	/**
+	 * Copies a rectangular region of an image to this buffer.
+	 *
+	 * @param source The source image.
+	 * @param sourceRaster The raster of the source image or {@code null}.
+	 * @param x0 The left edge of the region (inclusive).
+	 * @param y0 The top edge of the region (inclusive).
+	 * @param x1 The right edge of the region (exclusive).
+	 * @param y1 The bottom edge of the region (exclusive).
+	 */
+	public void copyFrom(BufferedImage source, PixelRaster sourceRaster, int x0, int y0, int x1, int y1)
+	{
+		int length = x1 - x0;
+		if (hasDirectLayout(source, sourceRaster))
+		{
+			int[] sourceData = sourceRaster.getIntData();
+			for (int y = y0; y < y1; y++)
+			{
+				this.pixels.position(y * this.width + x0);
+				this.pixels.put(sourceData, sourceRaster.getIndex(x0, y), length);
+			}
+		}
+		else
+		{
+			int[] scanline = new int[length];
+			for (int y = y0; y < y1; y++)
+			{
+				source.getRGB(x0, y, length, 1, scanline, 0, length);
+				this.pixels.position(y * this.width + x0);
+				this.pixels.put(scanline, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * Copies a rectangular region of another buffer with the same dimensions to this buffer.
+	 *
+	 * @param source The source buffer.
+	 * @param x0 The left edge of the region (inclusive).
+	 * @param y0 The top edge of the region (inclusive).
+	 * @param x1 The right edge of the region (exclusive).
+	 * @param y1 The bottom edge of the region (exclusive).
+	 */
+	public void copyFrom(FrameBuffer source, int x0, int y0, int x1, int y1)
+	{
+		IntBuffer sourcePixels = source.pixels.duplicate();
+		for (int y = y0; y < y1; y++)
+		{
+			int index = y * this.width + x0;
+			sourcePixels.limit(index + x1 - x0);
+			sourcePixels.position(index);
+			this.pixels.position(index);
+			this.pixels.put(sourcePixels);
+		}
+	}
+
+	/**
+	 * Checks if a rectangular region has the same pixels on this buffer and on an image.
+	 * <p/>
+	 * Only the color components are compared, so images with an alpha channel are treated as opaque.
+	 *
+	 * @param image The image.
+	 * @param raster The raster of the image or {@code null}.
+	 * @param x0 The left edge of the region (inclusive).
+	 * @param y0 The top edge of the region (inclusive).
+	 * @param x1 The right edge of the region (exclusive).
+	 * @param y1 The bottom edge of the region (exclusive).
+	 * @return If all pixels within the region are the same.
+	 */
+	public boolean regionEquals(BufferedImage image, PixelRaster raster, int x0, int y0, int x1, int y1)
+	{
+		// absolute reads do not depend on the position of the buffer, so several tiles may be compared concurrently.
+		IntBuffer pixels = this.pixels;
+		int length = x1 - x0;
+		int[] data;
+		int[] scanline;
+		if (hasDirectLayout(image, raster))
+		{
+			data = raster.getIntData();
+			scanline = null;
+		}
+		else
+		{
+			data = null;
+			scanline = new int[length];
+		}
+
+		for (int y = y0; y < y1; y++)
+		{
+			int index0 = y * this.width + x0;
+			int index1;
+			int[] array1;
+			if (data != null)
+			{
+				array1 = data;
+				index1 = raster.getIndex(x0, y);
+			}
+			else
+			{
+				image.getRGB(x0, y, length, 1, scanline, 0, length);
+				array1 = scanline;
+				index1 = 0;
+			}
+			for (int i = 0; i < length; i++)
+			{
+				if (((pixels.get(index0 + i) ^ array1[index1 + i]) & RGB_MASK) != 0)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the raster of an image stores its pixels in the same layout as a frame buffer.
+	 *
+	 * @param image The image.
+	 * @param raster The raster of the image or {@code null}.
+	 * @return If the pixels may be copied as they are.
+	 */
+	private static boolean hasDirectLayout(BufferedImage image, PixelRaster raster)
+	{
+		int imageType = image.getType();
+		return raster != null && raster.getIntData() != null && (imageType == BufferedImage.TYPE_INT_RGB || imageType == BufferedImage.TYPE_INT_ARGB);
+	}
+}
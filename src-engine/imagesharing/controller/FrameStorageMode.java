@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.controller;
+
+/**
+ * The places where a {@link BufferedImageSharingController} may keep the pixels of the shared image.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public enum FrameStorageMode
+{
+	/**
+	 * The pixels are kept in arrays on the Java heap.
+	 */
+	HEAP,
+
+	/**
+	 * The pixels are kept in direct buffers, outside of the Java heap.
+	 * <p/>
+	 * The size of the heap then no longer depends on the size of the shared image, so large images do not make garbage collection pauses longer. Reading and writing the pixels is slightly slower than on the heap.
+	 */
+	DIRECT
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.controller;
+
+import java.util.List;
+
+/**
+ * Describes an update of the image shared by a {@link BufferedImageSharingController}.
+ * <p/>
+ * The update is described before it is published, so the tiles given by {@link #getTileImage(TilePosition)} may not be visible to the other users of the controller yet.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public abstract class ImageUpdate
+{
+	private final ImageDescription imageDescription;
+	private final long timestamp;
+	private final List<TilePosition> changedTiles;
+	private final int tileCount;
+	private final boolean newImage;
+
+	ImageUpdate(ImageDescription imageDescription, long timestamp, List<TilePosition> changedTiles, int tileCount, boolean newImage)
+	{
+		this.imageDescription = imageDescription;
+		this.timestamp = timestamp;
+		this.changedTiles = changedTiles;
+		this.tileCount = tileCount;
+		this.newImage = newImage;
+	}
+
+	/**
+	 * Gets the description of the image after the update.
+	 *
+	 * @return The image description.
+	 */
+	public ImageDescription getImageDescription()
+	{
+		return this.imageDescription;
+	}
+
+	/**
+	 * Gets when the update happened.
+	 *
+	 * @return The update timestamp.
+	 */
+	public long getTimestamp()
+	{
+		return this.timestamp;
+	}
+
+	/**
+	 * Gets the tiles changed by the update.
+	 * <p/>
+	 * If the update has {@link #isNewImage() created a new image}, all tiles are listed. If nothing has changed, the list is empty.
+	 *
+	 * @return A read-only list of tile positions.
+	 */
+	public List<TilePosition> getChangedTiles()
+	{
+		return this.changedTiles;
+	}
+
+	/**
+	 * Gets the number of tiles of the image.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getTileCount()
+	{
+		return this.tileCount;
+	}
+
+	/**
+	 * Checks if the update has created a new image, with a new identifier, rather than changing the tiles of the previous one.
+	 *
+	 * @return If the update has created a new image.
+	 */
+	public boolean isNewImage()
+	{
+		return this.newImage;
+	}
+
+	/**
+	 * Gets the image of a single tile, as it is after the update.
+	 *
+	 * @param tilePosition The tile position.
+	 * @return The tile image.
+	 * @throws IndexOutOfBoundsException If the tile position is out of the image boundaries.
+	 */
+	public abstract TileImage getTileImage(TilePosition tilePosition);
+}
@@ -27,19 +27,43 @@
 package imagesharing.controller;
 
 import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
 
+/**
+ * The pixels of a tile of a shared image.
+ * <p/>
+ * The pixels are exposed as a read-only view of the storage of the controller, which may be outside of the Java heap, so getting a tile does not copy it. The pixels are in the same layout as a {@link BufferedImage#TYPE_INT_RGB} image.
+ *
+ * @author Felipe Michels Fontoura
+ */
 public class TileImage
 {
-	public final BufferedImage image;
 	public final int x0;
 	public final int x1;
 	public final int y0;
 	public final int y1;
+	private final IntBuffer pixels;
+	private final int offset;
+	private final int scanlineStride;
 	private final long instant;
 
-	public TileImage(BufferedImage image, int x0, int x1, int y0, int y1, long whenLastUpdated)
+	/**
+	 * Creates a tile.
+	 *
+	 * @param pixels A read-only view of the pixels.
+	 * @param offset The index of the pixel at the origin of the image.
+	 * @param scanlineStride The distance between two vertically adjacent pixels.
+	 * @param x0 The left edge of the tile (inclusive).
+	 * @param x1 The right edge of the tile (exclusive).
+	 * @param y0 The top edge of the tile (inclusive).
+	 * @param y1 The bottom edge of the tile (exclusive).
+	 * @param whenLastUpdated When the tile was last changed.
+	 */
+	public TileImage(IntBuffer pixels, int offset, int scanlineStride, int x0, int x1, int y0, int y1, long whenLastUpdated)
 	{
-		this.image = image;
+		this.pixels = pixels;
+		this.offset = offset;
+		this.scanlineStride = scanlineStride;
 		this.x0 = x0;
 		this.x1 = x1;
 		this.y0 = y0;
@@ -51,4 +75,69 @@ public class TileImage
 	{
 		return this.instant;
 	}
-}
\ No newline at end of file
+
+	public int getWidth()
+	{
+		return this.x1 - this.x0;
+	}
+
+	public int getHeight()
+	{
+		return this.y1 - this.y0;
+	}
+
+	/**
+	 * Gets a read-only view of the pixels.
+	 * <p/>
+	 * The view may contain pixels outside of the tile, so the pixels must be located with {@link #getIndex(int, int)}.
+	 *
+	 * @return The view, with its own position and limit.
+	 */
+	public IntBuffer getPixels()
+	{
+		return this.pixels.duplicate();
+	}
+
+	/**
+	 * Gets the distance, in pixels, between two vertically adjacent pixels on the {@link #getPixels() view}.
+	 *
+	 * @return The scanline stride.
+	 */
+	public int getScanlineStride()
+	{
+		return this.scanlineStride;
+	}
+
+	/**
+	 * Gets the index of a pixel on the {@link #getPixels() view}.
+	 *
+	 * @param x The horizontal position of the pixel within the image.
+	 * @param y The vertical position of the pixel within the image.
+	 * @return The index of the pixel.
+	 */
+	public int getIndex(int x, int y)
+	{
+		return this.offset + y * this.scanlineStride + x;
+	}
+
+	/**
+	 * Copies the pixels of the tile to a new image.
+	 *
+	 * @return The image, which has the dimensions of the tile.
+	 */
+	public BufferedImage toBufferedImage()
+	{
+		int width = this.getWidth();
+		int height = this.getHeight();
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] scanline = new int[width];
+		IntBuffer pixels = this.pixels.duplicate();
+		for (int y = 0; y < height; y++)
+		{
+			pixels.position(this.getIndex(this.x0, this.y0 + y));
+			pixels.get(scanline, 0, width);
+			image.getRaster().setDataElements(0, y, width, 1, scanline);
+		}
+		return image;
+	}
+}
@@ -0,0 +1,713 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.recording;
+
+import imagesharing.controller.ImageDescription;
+import imagesharing.controller.ImageIdentifier;
+import imagesharing.controller.ImageUpdate;
+import imagesharing.controller.ImageUpdateListener;
+import imagesharing.controller.TileImage;
+import imagesharing.controller.TilePosition;
+import imagesharing.util.PngEncoder;
+import imagesharing.util.PngFilterMode;
+import imagesharing.util.RunOnceRunnable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Records the updates of a shared image into an append-only segment file, so the session can be played back later with a {@link SessionRecording}.
+ * <p/>
+ * Only the tiles which have changed are recorded, encoded as PNG along with their MIME type, and the time they changed. The position of each record is kept in a memory-mapped index file, so any instant of the session can be rebuilt by decoding only the records it needs. Every so often, and whenever the image changes its layout, all tiles are recorded at once as a key frame, so rebuilding an instant never has to go far back.
+ * <p/>
+ * The tiles are encoded by the writer thread, straight from the published frame, so recording adds little latency to the controller. The listener only helps with any tiles left when the next update with changes arrives, since the controller may then start reusing that frame's buffer. The records are written in batches, so the segment file is only written sequentially.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class SessionRecorder implements ImageUpdateListener
+{
+	static final int INDEX_MAGIC = 0x49534958;
+	static final int INDEX_HEADER_SIZE = 16;
+	static final int INDEX_ENTRY_SIZE = 32;
+	static final int INDEX_ENTRY_COUNT_OFFSET = 8;
+
+	static final int RECORD_HEADER_SIZE = 21;
+	static final byte RECORD_TYPE_LAYOUT = 0;
+	static final byte RECORD_TYPE_TILE = 1;
+	static final byte RECORD_TYPE_ENCODED_TILE = 2;
+
+	private static final int INDEX_GROWTH = 65536;
+
+	private final File segmentFile;
+	private final File indexFile;
+
+	private volatile long flushInterval = 1000;
+	private volatile long keyFrameInterval = 60000;
+	private volatile PngEncoder encoder = new PngEncoder(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY, PngFilterMode.UP);
+
+	private final ArrayDeque<PendingRecord> pendingRecords = new ArrayDeque<PendingRecord>();
+	private ImageIdentifier lastImageIdentifier = null;
+	private long lastKeyFrameTimestamp = 0;
+	private List<RunOnceRunnable<EncodeTileTask>> encodings = null;
+	private List<RunOnceRunnable<EncodeTileTask>> unfinishedEncodings = null;
+
+	private boolean shouldRun = false;
+	private boolean running = false;
+
+	private RandomAccessFile segment = null;
+	private RandomAccessFile index = null;
+	private MappedByteBuffer indexBuffer = null;
+	private long entryCount = 0;
+
+	public SessionRecorder(File segmentFile, File indexFile)
+	{
+		if (segmentFile == null)
+		{
+			throw new NullPointerException("The segment file must be provided!");
+		}
+		if (indexFile == null)
+		{
+			throw new NullPointerException("The index file must be provided!");
+		}
+		this.segmentFile = segmentFile;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Gets the interval between writes to the disk.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getFlushInterval()
+	{
+		return this.flushInterval;
+	}
+
+	/**
+	 * Sets the interval between writes to the disk. All tiles changed within the interval are written at once.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setFlushInterval(long value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("The flush interval must not be negative!");
+		}
+		this.flushInterval = value;
+	}
+
+	/**
+	 * Gets the interval between key frames.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getKeyFrameInterval()
+	{
+		return this.keyFrameInterval;
+	}
+
+	/**
+	 * Sets the interval between key frames. Shorter intervals make seeking faster, but make the recording larger.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setKeyFrameInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The key frame interval must be positive!");
+		}
+		this.keyFrameInterval = value;
+	}
+
+	/**
+	 * Gets the encoder of the tiles.
+	 *
+	 * @return The encoder.
+	 */
+	public PngEncoder getEncoder()
+	{
+		return this.encoder;
+	}
+
+	/**
+	 * Sets the encoder of the tiles. By default, the tiles are compressed as fast as possible, as they are usually small.
+	 *
+	 * @param value The encoder.
+	 */
+	public void setEncoder(PngEncoder value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("The encoder must be provided!");
+		}
+		this.encoder = value;
+	}
+
+	/**
+	 * Opens the files and starts the thread which writes to them. If the files already exist, the new records are appended to them.
+	 *
+	 * @throws IOException If the files cannot be opened.
+	 */
+	public void start() throws IOException
+	{
+		synchronized (this.pendingRecords)
+		{
+			if (this.shouldRun || this.running)
+			{
+				return;
+			}
+
+			RandomAccessFile segment = new RandomAccessFile(this.segmentFile, "rw");
+			RandomAccessFile index = null;
+			try
+			{
+				index = new RandomAccessFile(this.indexFile, "rw");
+				MappedByteBuffer indexBuffer;
+				long entryCount;
+				if (index.length() < INDEX_HEADER_SIZE)
+				{
+					indexBuffer = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) INDEX_GROWTH * INDEX_ENTRY_SIZE);
+					indexBuffer.putInt(0, INDEX_MAGIC);
+					indexBuffer.putLong(INDEX_ENTRY_COUNT_OFFSET, 0);
+					entryCount = 0;
+				}
+				else
+				{
+					indexBuffer = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, index.length());
+					if (indexBuffer.getInt(0) != INDEX_MAGIC)
+					{
+						throw new IOException("The index file is not a session index!");
+					}
+					entryCount = indexBuffer.getLong(INDEX_ENTRY_COUNT_OFFSET);
+				}
+
+				// the index may have reached the disk before the records it points to, so the entries whose records are missing are dropped rather than filled with zeros.
+				long actualSegmentLength = segment.length();
+				long segmentLength = 0;
+				long indexedEntryCount = entryCount;
+				while (entryCount > 0)
+				{
+					int position = (int) (INDEX_HEADER_SIZE + (entryCount - 1) * INDEX_ENTRY_SIZE);
+					segmentLength = indexBuffer.getLong(position + 8) + indexBuffer.getInt(position + 16);
+					if (segmentLength <= actualSegmentLength)
+					{
+						break;
+					}
+					entryCount--;
+					segmentLength = 0;
+				}
+				if (entryCount < indexedEntryCount)
+				{
+					indexBuffer.putLong(INDEX_ENTRY_COUNT_OFFSET, entryCount);
+				}
+
+				// anything written after the last indexed record is discarded.
+				if (actualSegmentLength > segmentLength)
+				{
+					segment.setLength(segmentLength);
+				}
+				segment.seek(segmentLength);
+
+				this.segment = segment;
+				this.index = index;
+				this.indexBuffer = indexBuffer;
+				this.entryCount = entryCount;
+			}
+			catch (IOException e)
+			{
+				segment.close();
+				if (index != null)
+				{
+					index.close();
+				}
+				throw e;
+			}
+
+			this.lastImageIdentifier = null;
+			this.encodings = null;
+			this.unfinishedEncodings = null;
+			this.shouldRun = true;
+			this.running = true;
+		}
+
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				SessionRecorder.this.run();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes all pending records, then closes the files.
+	 */
+	public void stop()
+	{
+		synchronized (this.pendingRecords)
+		{
+			this.shouldRun = false;
+			this.pendingRecords.notifyAll();
+			while (this.running)
+			{
+				try
+				{
+					this.pendingRecords.wait();
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+	}
+
+	@Override
+	public void imageUpdated(ImageUpdate update)
+	{
+		ImageDescription description = update.getImageDescription();
+		long timestamp = update.getTimestamp();
+
+		boolean keyFrame;
+		synchronized (this.pendingRecords)
+		{
+			if (!this.shouldRun)
+			{
+				return;
+			}
+
+			// a new layout, or a long time since the last key frame, requires all tiles to be recorded.
+			keyFrame = update.isNewImage() || !description.imageIdentifier.equals(this.lastImageIdentifier) || timestamp - this.lastKeyFrameTimestamp >= this.keyFrameInterval;
+			if (keyFrame)
+			{
+				this.lastImageIdentifier = description.imageIdentifier;
+				this.lastKeyFrameTimestamp = timestamp;
+			}
+		}
+		if (!keyFrame && update.getChangedTiles().isEmpty())
+		{
+			return;
+		}
+
+		// the controller writes to the buffer of a published frame again only after another update with changes, so the tiles of the previous update must be encoded by now.
+		this.finishEncodings();
+
+		ArrayList<PendingRecord> records = new ArrayList<PendingRecord>();
+		List<TilePosition> tilePositions;
+		if (keyFrame)
+		{
+			records.add(new PendingRecord(timestamp, description));
+			tilePositions = new ArrayList<TilePosition>();
+			int tilesX = (description.width + description.tileWidth - 1) / description.tileWidth;
+			int tilesY = (description.height + description.tileHeight - 1) / description.tileHeight;
+			for (int y = 0; y < tilesY; y++)
+			{
+				for (int x = 0; x < tilesX; x++)
+				{
+					tilePositions.add(new TilePosition(x, y));
+				}
+			}
+		}
+		else
+		{
+			tilePositions = update.getChangedTiles();
+		}
+
+		// the tiles are left for the writer thread to encode, so the controller is not held up encoding them.
+		PngEncoder encoder = this.encoder;
+		ArrayList<RunOnceRunnable<EncodeTileTask>> encodings = new ArrayList<RunOnceRunnable<EncodeTileTask>>(tilePositions.size());
+		for (TilePosition tilePosition : tilePositions)
+		{
+			PendingRecord record = new PendingRecord(timestamp, tilePosition);
+			record.encoding = new RunOnceRunnable<EncodeTileTask>(new EncodeTileTask(record, update.getTileImage(tilePosition), encoder));
+			records.add(record);
+			encodings.add(record.encoding);
+		}
+
+		synchronized (this.pendingRecords)
+		{
+			if (this.shouldRun)
+			{
+				this.pendingRecords.addAll(records);
+				this.encodings = encodings;
+				this.unfinishedEncodings = encodings;
+				this.pendingRecords.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Encodes the tiles of the last update which the writer thread has not encoded yet, then waits for the ones it is encoding.
+	 * <p/>
+	 * Only the controller thread calls this method.
+	 */
+	private void finishEncodings()
+	{
+		List<RunOnceRunnable<EncodeTileTask>> encodings;
+		synchronized (this.pendingRecords)
+		{
+			encodings = this.unfinishedEncodings;
+			this.unfinishedEncodings = null;
+		}
+		if (encodings == null)
+		{
+			return;
+		}
+		for (RunOnceRunnable<EncodeTileTask> encoding : encodings)
+		{
+			encoding.run();
+		}
+		for (RunOnceRunnable<EncodeTileTask> encoding : encodings)
+		{
+			while (true)
+			{
+				try
+				{
+					encoding.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+	}
+
+	private void run()
+	{
+		try
+		{
+			long targetTimestamp = 0;
+			while (true)
+			{
+				// waits for records, then lets them accumulate for a while, so they are written in a single batch. the tiles are encoded as soon as they arrive, though.
+				PendingRecord[] records = null;
+				List<RunOnceRunnable<EncodeTileTask>> encodings;
+				boolean continueRunning;
+				synchronized (this.pendingRecords)
+				{
+					while (this.shouldRun && this.pendingRecords.isEmpty())
+					{
+						try
+						{
+							this.pendingRecords.wait();
+						}
+						catch (InterruptedException e)
+						{
+						}
+					}
+					if (targetTimestamp == 0)
+					{
+						targetTimestamp = System.currentTimeMillis() + this.flushInterval;
+					}
+					long currentTimestamp = System.currentTimeMillis();
+					while (this.shouldRun && currentTimestamp < targetTimestamp && this.encodings == null)
+					{
+						try
+						{
+							this.pendingRecords.wait(targetTimestamp - currentTimestamp);
+						}
+						catch (InterruptedException e)
+						{
+						}
+						currentTimestamp = System.currentTimeMillis();
+					}
+					encodings = this.encodings;
+					this.encodings = null;
+					if (encodings == null)
+					{
+						records = this.pendingRecords.toArray(new PendingRecord[this.pendingRecords.size()]);
+						this.pendingRecords.clear();
+						targetTimestamp = 0;
+					}
+					continueRunning = this.shouldRun;
+				}
+
+				if (encodings != null)
+				{
+					for (RunOnceRunnable<EncodeTileTask> encoding : encodings)
+					{
+						encoding.run();
+					}
+					continue;
+				}
+				if (records.length > 0)
+				{
+					this.write(records);
+				}
+				if (!continueRunning)
+				{
+					break;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// the recording stops, but the records written so far are still valid.
+			e.printStackTrace();
+		}
+		finally
+		{
+			this.close();
+			synchronized (this.pendingRecords)
+			{
+				this.shouldRun = false;
+				this.running = false;
+				this.pendingRecords.clear();
+				this.pendingRecords.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Appends a batch of records to the segment file and to the index.
+	 *
+	 * @param records The records.
+	 * @throws IOException If the files cannot be written.
+	 */
+	private void write(PendingRecord[] records) throws IOException
+	{
+		long segmentOffset = this.segment.getFilePointer();
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		long[] offsets = new long[records.length];
+		int[] lengths = new int[records.length];
+		for (int i = 0; i < records.length; i++)
+		{
+			PendingRecord record = records[i];
+			payload.reset();
+			if (record.description != null)
+			{
+				ByteBuffer layout = ByteBuffer.allocate(16);
+				layout.putInt(record.description.width);
+				layout.putInt(record.description.height);
+				layout.putInt(record.description.tileWidth);
+				layout.putInt(record.description.tileHeight);
+				payload.write(layout.array());
+			}
+			else
+			{
+				record.finishEncoding();
+				byte[] mimeType = record.mimeType.getBytes(StandardCharsets.US_ASCII);
+				payload.write(mimeType.length);
+				payload.write(mimeType);
+				payload.write(record.data);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			header.put(record.description != null ? RECORD_TYPE_LAYOUT : RECORD_TYPE_ENCODED_TILE);
+			header.putLong(record.timestamp);
+			header.putInt(record.tileX);
+			header.putInt(record.tileY);
+			header.putInt(payload.size());
+
+			offsets[i] = segmentOffset + batch.size();
+			lengths[i] = RECORD_HEADER_SIZE + payload.size();
+			batch.write(header.array());
+			payload.writeTo(batch);
+		}
+
+		// the whole batch is appended with a single write.
+		this.segment.write(batch.toByteArray());
+
+		// the entry count is updated last, so readers never see entries whose records have not been written.
+		this.ensureIndexCapacity(this.entryCount + records.length);
+		for (int i = 0; i < records.length; i++)
+		{
+			int position = (int) (INDEX_HEADER_SIZE + (this.entryCount + i) * INDEX_ENTRY_SIZE);
+			this.indexBuffer.putLong(position, records[i].timestamp);
+			this.indexBuffer.putLong(position + 8, offsets[i]);
+			this.indexBuffer.putInt(position + 16, lengths[i]);
+			this.indexBuffer.putInt(position + 20, records[i].description != null ? RECORD_TYPE_LAYOUT : RECORD_TYPE_ENCODED_TILE);
+			this.indexBuffer.putInt(position + 24, records[i].tileX);
+			this.indexBuffer.putInt(position + 28, records[i].tileY);
+		}
+		this.entryCount += records.length;
+		this.indexBuffer.putLong(INDEX_ENTRY_COUNT_OFFSET, this.entryCount);
+	}
+
+	private void ensureIndexCapacity(long entryCount) throws IOException
+	{
+		long size = INDEX_HEADER_SIZE + entryCount * INDEX_ENTRY_SIZE;
+		if (size > this.indexBuffer.capacity())
+		{
+			long newSize = size + (long) INDEX_GROWTH * INDEX_ENTRY_SIZE;
+			if (newSize > Integer.MAX_VALUE)
+			{
+				throw new IOException("The index file is full!");
+			}
+			this.indexBuffer.force();
+			this.indexBuffer = this.index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+		}
+	}
+
+	private void close()
+	{
+		try
+		{
+			if (this.indexBuffer != null)
+			{
+				this.indexBuffer.force();
+			}
+			if (this.segment != null)
+			{
+				this.segment.getChannel().force(true);
+			}
+		}
+		catch (IOException e)
+		{
+		}
+
+		try
+		{
+			if (this.segment != null)
+			{
+				this.segment.close();
+			}
+		}
+		catch (IOException e)
+		{
+		}
+		try
+		{
+			if (this.index != null)
+			{
+				this.index.close();
+			}
+		}
+		catch (IOException e)
+		{
+		}
+		this.segment = null;
+		this.index = null;
+		this.indexBuffer = null;
+	}
+
+	/**
+	 * A record waiting to be written.
+	 */
+	private static final class PendingRecord
+	{
+		public final long timestamp;
+		public final ImageDescription description;
+		public final int tileX;
+		public final int tileY;
+		public String mimeType;
+		public byte[] data;
+		public RunOnceRunnable<EncodeTileTask> encoding;
+
+		public PendingRecord(long timestamp, ImageDescription description)
+		{
+			this.timestamp = timestamp;
+			this.description = description;
+			this.tileX = -1;
+			this.tileY = -1;
+		}
+
+		public PendingRecord(long timestamp, TilePosition tilePosition)
+		{
+			this.timestamp = timestamp;
+			this.description = null;
+			this.tileX = tilePosition.getX();
+			this.tileY = tilePosition.getY();
+		}
+
+		/**
+		 * Makes sure the tile has been encoded, encoding it on the current thread if needed.
+		 */
+		public void finishEncoding()
+		{
+			if (this.encoding == null)
+			{
+				return;
+			}
+			this.encoding.run();
+			while (true)
+			{
+				try
+				{
+					this.encoding.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes a tile straight from the storage of the controller.
+	 */
+	private static final class EncodeTileTask implements Runnable
+	{
+		private final PendingRecord record;
+		private final TileImage tileImage;
+		private final PngEncoder encoder;
+
+		public EncodeTileTask(PendingRecord record, TileImage tileImage, PngEncoder encoder)
+		{
+			this.record = record;
+			this.tileImage = tileImage;
+			this.encoder = encoder;
+		}
+
+		@Override
+		public void run()
+		{
+			TileImage tileImage = this.tileImage;
+			IntBuffer pixels = tileImage.getPixels();
+			int offset = tileImage.getIndex(tileImage.x0, tileImage.y0);
+			int width = tileImage.getWidth();
+			int height = tileImage.getHeight();
+
+			// tiles with few colors are much smaller when indexed.
+			byte[] data = this.encoder.encodeIndexed(pixels, offset, tileImage.getScanlineStride(), width, height);
+			if (data == null)
+			{
+				data = this.encoder.encode(pixels, offset, tileImage.getScanlineStride(), width, height);
+			}
+			this.record.mimeType = "image/png";
+			this.record.data = data;
+		}
+	}
+}
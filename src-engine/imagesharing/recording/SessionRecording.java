@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.recording;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A session recorded by a {@link SessionRecorder}, which can rebuild the shared image at any instant.
+ * <p/>
+ * Rebuilding an instant reads the index to find the records it needs, going back only to the previous key frame, and decodes only the most recent version of each tile. A record which cannot be decoded is reported and skipped, so an older version of its tile is used instead. The recording may be opened while it is still being written, in which case only the records written before it was opened are visible.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class SessionRecording implements Closeable
+{
+	private final RandomAccessFile segment;
+	private final RandomAccessFile index;
+	private final MappedByteBuffer indexBuffer;
+	private final int entryCount;
+
+	public SessionRecording(File segmentFile, File indexFile) throws IOException
+	{
+		if (segmentFile == null)
+		{
+			throw new NullPointerException("The segment file must be provided!");
+		}
+		if (indexFile == null)
+		{
+			throw new NullPointerException("The index file must be provided!");
+		}
+
+		RandomAccessFile segment = new RandomAccessFile(segmentFile, "r");
+		RandomAccessFile index = null;
+		try
+		{
+			index = new RandomAccessFile(indexFile, "r");
+			if (index.length() < SessionRecorder.INDEX_HEADER_SIZE)
+			{
+				throw new IOException("The index file is not a session index!");
+			}
+			MappedByteBuffer indexBuffer = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, index.length());
+			if (indexBuffer.getInt(0) != SessionRecorder.INDEX_MAGIC)
+			{
+				throw new IOException("The index file is not a session index!");
+			}
+			long entryCount = indexBuffer.getLong(SessionRecorder.INDEX_ENTRY_COUNT_OFFSET);
+			if (SessionRecorder.INDEX_HEADER_SIZE + entryCount * SessionRecorder.INDEX_ENTRY_SIZE > index.length())
+			{
+				throw new IOException("The index file is truncated!");
+			}
+
+			this.segment = segment;
+			this.index = index;
+			this.indexBuffer = indexBuffer;
+			this.entryCount = (int) entryCount;
+		}
+		catch (IOException e)
+		{
+			segment.close();
+			if (index != null)
+			{
+				index.close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the time of the first record.
+	 *
+	 * @return The timestamp, or {@code -1} if the recording is empty.
+	 */
+	public long getStartTimestamp()
+	{
+		return this.entryCount > 0 ? this.getTimestamp(0) : -1;
+	}
+
+	/**
+	 * Gets the time of the last record.
+	 *
+	 * @return The timestamp, or {@code -1} if the recording is empty.
+	 */
+	public long getEndTimestamp()
+	{
+		return this.entryCount > 0 ? this.getTimestamp(this.entryCount - 1) : -1;
+	}
+
+	/**
+	 * Rebuilds the shared image as it was at a given instant.
+	 * <p/>
+	 * The tiles whose records cannot be decoded are taken from older records, or left black if there are none since the last key frame.
+	 *
+	 * @param timestamp The instant.
+	 * @return The image, or {@code null} if the recording starts after the instant.
+	 * @throws IOException If the layout of the image cannot be read.
+	 */
+	public BufferedImage getImage(long timestamp) throws IOException
+	{
+		// finds the last entry up to the instant.
+		int low = 0;
+		int high = this.entryCount;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (this.getTimestamp(middle) <= timestamp)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		int last = low - 1;
+
+		// goes back to the layout of the image.
+		int layoutEntry = -1;
+		for (int entry = last; entry >= 0; entry--)
+		{
+			if (this.getType(entry) == SessionRecorder.RECORD_TYPE_LAYOUT)
+			{
+				layoutEntry = entry;
+				break;
+			}
+		}
+		if (layoutEntry < 0)
+		{
+			return null;
+		}
+
+		ByteBuffer layout = ByteBuffer.wrap(this.readPayload(layoutEntry));
+		int width = layout.getInt();
+		int height = layout.getInt();
+		int tileWidth = layout.getInt();
+		int tileHeight = layout.getInt();
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		try
+		{
+			// only the most recent version of each tile which can be decoded is drawn.
+			HashSet<Long> drawnTiles = new HashSet<Long>();
+			for (int entry = last; entry > layoutEntry; entry--)
+			{
+				Long key = Long.valueOf(((long) this.getTileX(entry) << 32) | (this.getTileY(entry) & 0xFFFFFFFFL));
+				if (drawnTiles.contains(key))
+				{
+					continue;
+				}
+
+				BufferedImage tileImage;
+				try
+				{
+					tileImage = this.readTile(entry);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+					continue;
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();
+					continue;
+				}
+				graphics.drawImage(tileImage, this.getTileX(entry) * tileWidth, this.getTileY(entry) * tileHeight, null);
+				drawnTiles.add(key);
+			}
+		}
+		finally
+		{
+			graphics.dispose();
+		}
+		return image;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			this.segment.close();
+		}
+		finally
+		{
+			this.index.close();
+		}
+	}
+
+	private long getTimestamp(int entry)
+	{
+		return this.indexBuffer.getLong(getPosition(entry));
+	}
+
+	private int getType(int entry)
+	{
+		return this.indexBuffer.getInt(getPosition(entry) + 20);
+	}
+
+	private int getTileX(int entry)
+	{
+		return this.indexBuffer.getInt(getPosition(entry) + 24);
+	}
+
+	private int getTileY(int entry)
+	{
+		return this.indexBuffer.getInt(getPosition(entry) + 28);
+	}
+
+	/**
+	 * Reads and decodes the tile of a record.
+	 *
+	 * @param entry The entry of the record.
+	 * @return The tile.
+	 * @throws IOException If the record cannot be read or decoded.
+	 */
+	private BufferedImage readTile(int entry) throws IOException
+	{
+		byte[] payload = this.readPayload(entry);
+		int type = this.getType(entry);
+		if (type == SessionRecorder.RECORD_TYPE_TILE)
+		{
+			// the records of older recordings are plain PNG files.
+			BufferedImage tileImage = ImageIO.read(new ByteArrayInputStream(payload));
+			if (tileImage == null)
+			{
+				throw new IOException("The tile of entry " + entry + " cannot be decoded!");
+			}
+			return tileImage;
+		}
+		if (type != SessionRecorder.RECORD_TYPE_ENCODED_TILE)
+		{
+			throw new IOException("The entry " + entry + " has an unknown type!");
+		}
+
+		int mimeTypeLength = payload.length > 0 ? payload[0] & 0xFF : 0;
+		if (mimeTypeLength == 0 || payload.length < 1 + mimeTypeLength)
+		{
+			throw new IOException("The tile of entry " + entry + " is truncated!");
+		}
+		String mimeType = new String(payload, 1, mimeTypeLength, StandardCharsets.US_ASCII);
+		Iterator<ImageReader> readers = ImageIO.getImageReadersByMIMEType(mimeType);
+		if (!readers.hasNext())
+		{
+			throw new IOException("The tile of entry " + entry + " has an unsupported type: " + mimeType);
+		}
+		ImageReader reader = readers.next();
+		try
+		{
+			ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(payload, 1 + mimeTypeLength, payload.length - 1 - mimeTypeLength));
+			reader.setInput(input, true, true);
+			return reader.read(0);
+		}
+		finally
+		{
+			reader.dispose();
+		}
+	}
+
+	private byte[] readPayload(int entry) throws IOException
+	{
+		int position = getPosition(entry);
+		long offset = this.indexBuffer.getLong(position + 8);
+		int length = this.indexBuffer.getInt(position + 16);
+
+		byte[] payload = new byte[length - SessionRecorder.RECORD_HEADER_SIZE];
+		synchronized (this.segment)
+		{
+			this.segment.seek(offset + SessionRecorder.RECORD_HEADER_SIZE);
+			this.segment.readFully(payload);
+		}
+		return payload;
+	}
+
+	private static int getPosition(int entry)
+	{
+		return SessionRecorder.INDEX_HEADER_SIZE + entry * SessionRecorder.INDEX_ENTRY_SIZE;
+	}
+}
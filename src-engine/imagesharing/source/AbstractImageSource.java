@@ -26,8 +26,10 @@
 
 package imagesharing.source;
 
+import imagesharing.util.ImagePool;
+
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
 
 /**
  * An agent which captures images from some source at a given interval and triggers callbacks for each capture.
@@ -36,7 +38,8 @@ import java.util.ArrayList;
  */
 public abstract class AbstractImageSource implements ImageSource
 {
-	private final ArrayList<ImageCallback> callbacks = new ArrayList<ImageCallback>();
+	private final ImageCallbackRegistry callbacks = new ImageCallbackRegistry();
+	private volatile ImagePool imagePool = null;
 
 	public AbstractImageSource()
 	{
@@ -51,42 +54,91 @@ public abstract class AbstractImageSource implements ImageSource
 	@Override
 	public void addImageCallback(ImageCallback callback)
 	{
-		synchronized (this.callbacks)
-		{
-			this.callbacks.add(callback);
-		}
+		this.callbacks.add(callback);
 	}
 
 	@Override
 	public void removeImageCallback(ImageCallback callback)
 	{
-		synchronized (this.callbacks)
-		{
-			this.callbacks.remove(callback);
-		}
+		this.callbacks.remove(callback);
 	}
 
-	protected void triggerCallbacks(BufferedImage image)
+	/**
+	 * Gets the pool which this source borrows its images from.
+	 *
+	 * @return The image pool or {@code null}.
+	 */
+	public ImagePool getImagePool()
 	{
-		ImageCallback[] clonedCallbacks;
-		synchronized (this.callbacks)
+		return this.imagePool;
+	}
+
+	/**
+	 * Sets the pool which this source borrows its images from.
+	 * <p/>
+	 * The consumer of the images should return them to the same pool once it no longer needs them.
+	 *
+	 * @param value The image pool or {@code null}.
+	 */
+	public void setImagePool(ImagePool value)
+	{
+		this.imagePool = value;
+	}
+
+	/**
+	 * Gets an image on which a frame can be drawn, borrowing it from the image pool if there is one.
+	 *
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @return The image, whose contents are undefined.
+	 */
+	protected BufferedImage borrowImage(int width, int height)
+	{
+		ImagePool imagePool = this.imagePool;
+		if (imagePool != null)
 		{
-			if (this.callbacks.isEmpty())
-			{
-				clonedCallbacks = null;
-			}
-			else
-			{
-				clonedCallbacks = this.callbacks.toArray(new ImageCallback[this.callbacks.size()]);
-			}
+			return imagePool.borrowImage(width, height);
 		}
-		if (clonedCallbacks != null)
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Gives back an image which was borrowed but will not be handed to the callbacks.
+	 *
+	 * @param image The image.
+	 */
+	protected void returnImage(BufferedImage image)
+	{
+		ImagePool imagePool = this.imagePool;
+		if (imagePool != null)
 		{
-			for (int i = 0; i < clonedCallbacks.length; i++)
-			{
-				clonedCallbacks[i].handleImage(image);
-				clonedCallbacks[i] = null;
-			}
+			imagePool.returnImage(image);
 		}
 	}
+
+	/**
+	 * Checks if any callback would be triggered, so that sources can skip producing images no one would receive.
+	 *
+	 * @return If there are callbacks.
+	 */
+	protected boolean hasCallbacks()
+	{
+		return !this.callbacks.isEmpty();
+	}
+
+	protected void triggerCallbacks(BufferedImage image)
+	{
+		this.triggerCallbacks(image, null);
+	}
+
+	/**
+	 * Triggers the callbacks for an image, telling the callbacks which support it which regions have changed.
+	 *
+	 * @param image The image.
+	 * @param dirtyRegions The regions which have changed since the previous image, or {@code null} if they are unknown.
+	 */
+	protected void triggerCallbacks(BufferedImage image, Rectangle[] dirtyRegions)
+	{
+		this.callbacks.trigger(image, dirtyRegions);
+	}
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+/**
+ * The position of the mouse pointer over a captured image.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public final class CursorPosition
+{
+	/**
+	 * The position of a pointer which is not over the captured image.
+	 */
+	public static final CursorPosition HIDDEN = new CursorPosition(false, 0, 0);
+
+	public final boolean visible;
+	public final int x;
+	public final int y;
+
+	public CursorPosition(int x, int y)
+	{
+		this(true, x, y);
+	}
+
+	private CursorPosition(boolean visible, int x, int y)
+	{
+		this.visible = visible;
+		this.x = x;
+		this.y = y;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return this.visible ? (this.x | (this.y << 16)) : -1;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (obj instanceof CursorPosition)
+		{
+			CursorPosition other = (CursorPosition) obj;
+			return other.visible == this.visible && other.x == this.x && other.y == this.y;
+		}
+		return false;
+	}
+}
@@ -27,26 +27,51 @@
 package imagesharing.source;
 
 import java.awt.AWTException;
+import java.awt.Color;
 import java.awt.DisplayMode;
+import java.awt.Graphics2D;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
 import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * An agent which captures desktop screenshots at a given interval and triggers callbacks for each capture.
+ * <p/>
+ * Screenshots do not include the mouse pointer, so its position is sampled by a thread of its own, at a shorter interval, and reported to the {@link CursorListener cursor listeners}. This way the pointer can be drawn by the viewers without changing any tile.
  *
  * @author Felipe Michels Fontoura
  */
 public class DesktopImageSource extends AbstractImageSource
 {
-	private final long timeQuantum = 100;
+	private static final double BUSY_CHANGED_TILE_FRACTION = 0.25;
+
+	private volatile long captureInterval = 100;
+	private volatile long minimumCaptureInterval = 50;
+	private volatile long maximumCaptureInterval = 1500;
+	private volatile int unchangedCapturesBeforeBackoff = 5;
+
+	private volatile Rectangle[] captureRegions = null;
+
+	private volatile long cursorSampleInterval = 20;
+	private final CopyOnWriteArrayList<CursorListener> cursorListeners = new CopyOnWriteArrayList<CursorListener>();
+	private CursorPosition cursorPosition = CursorPosition.HIDDEN;
+
+	private long currentCaptureInterval = 100;
+	private int unchangedCaptureCount = 0;
+	private boolean viewersPresent = true;
 
 	private volatile boolean shouldActivate = false;
 
 	private volatile boolean shouldRun = false;
 	private volatile boolean running = false;
+	private boolean cursorRunning = false;
 
 	private GraphicsDevice sourceDevice;
 
@@ -94,6 +119,271 @@ public class DesktopImageSource extends AbstractImageSource
 		this.updateRunningStatus();
 	}
 
+	/**
+	 * Gets the interval between captures while the screen is changing.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getCaptureInterval()
+	{
+		return this.captureInterval;
+	}
+
+	/**
+	 * Sets the interval between captures while the screen is changing.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setCaptureInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The capture interval must be positive!");
+		}
+		this.captureInterval = value;
+	}
+
+	/**
+	 * Gets the interval between captures while large parts of the screen are changing, such as when a video is playing.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getMinimumCaptureInterval()
+	{
+		return this.minimumCaptureInterval;
+	}
+
+	/**
+	 * Sets the interval between captures while large parts of the screen are changing, such as when a video is playing.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setMinimumCaptureInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The minimum capture interval must be positive!");
+		}
+		this.minimumCaptureInterval = value;
+	}
+
+	/**
+	 * Gets the longest interval between captures, which is reached when the screen has not changed for a while.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getMaximumCaptureInterval()
+	{
+		return this.maximumCaptureInterval;
+	}
+
+	/**
+	 * Sets the longest interval between captures, which is reached when the screen has not changed for a while.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setMaximumCaptureInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The maximum capture interval must be positive!");
+		}
+		this.maximumCaptureInterval = value;
+	}
+
+	/**
+	 * Gets the number of consecutive captures without changes after which the captures start to slow down.
+	 *
+	 * @return The number of captures.
+	 */
+	public int getUnchangedCapturesBeforeBackoff()
+	{
+		return this.unchangedCapturesBeforeBackoff;
+	}
+
+	/**
+	 * Sets the number of consecutive captures without changes after which the captures start to slow down.
+	 *
+	 * @param value The number of captures.
+	 */
+	public void setUnchangedCapturesBeforeBackoff(int value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("The number of captures must not be negative!");
+		}
+		this.unchangedCapturesBeforeBackoff = value;
+	}
+
+	/**
+	 * Checks if anyone is watching the captured images.
+	 *
+	 * @return If there are viewers.
+	 */
+	public boolean isViewersPresent()
+	{
+		synchronized (this)
+		{
+			return this.viewersPresent;
+		}
+	}
+
+	/**
+	 * Sets if anyone is watching the captured images.
+	 * <p/>
+	 * While there are no viewers, the screen is not captured at all. When viewers come back, the screen is captured right away.
+	 *
+	 * @param value If there are viewers.
+	 */
+	public void setViewersPresent(boolean value)
+	{
+		synchronized (this)
+		{
+			if (this.viewersPresent != value)
+			{
+				this.viewersPresent = value;
+				this.currentCaptureInterval = this.captureInterval;
+				this.unchangedCaptureCount = 0;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Tells how much a captured image has changed, so the interval between captures can be adapted.
+	 * <p/>
+	 * While the screen does not change, the interval doubles after each capture, up to the {@link #getMaximumCaptureInterval() maximum interval}. As soon as it changes, the interval goes back to the {@link #getCaptureInterval() normal interval}, or to the {@link #getMinimumCaptureInterval() minimum interval} if many tiles have changed.
+	 *
+	 * @param changedTileCount The number of tiles which have changed.
+	 * @param tileCount The total number of tiles.
+	 */
+	public void reportChanges(int changedTileCount, int tileCount)
+	{
+		synchronized (this)
+		{
+			long previousCaptureInterval = this.currentCaptureInterval;
+			if (changedTileCount == 0)
+			{
+				this.unchangedCaptureCount++;
+				if (this.unchangedCaptureCount > this.unchangedCapturesBeforeBackoff)
+				{
+					this.currentCaptureInterval = Math.min(this.currentCaptureInterval * 2, Math.max(this.maximumCaptureInterval, this.captureInterval));
+				}
+			}
+			else
+			{
+				this.unchangedCaptureCount = 0;
+				if (changedTileCount >= tileCount * BUSY_CHANGED_TILE_FRACTION)
+				{
+					this.currentCaptureInterval = Math.min(this.minimumCaptureInterval, this.captureInterval);
+				}
+				else
+				{
+					this.currentCaptureInterval = this.captureInterval;
+				}
+			}
+
+			// the capture thread may be waiting for a longer interval.
+			if (this.currentCaptureInterval < previousCaptureInterval)
+			{
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Gets the regions of the screen which are captured.
+	 *
+	 * @return The regions, in pixels relative to the top left corner of the screen, or {@code null} if the whole screen is captured.
+	 */
+	public Rectangle[] getCaptureRegions()
+	{
+		Rectangle[] captureRegions = this.captureRegions;
+		return captureRegions != null ? copyRegions(captureRegions) : null;
+	}
+
+	/**
+	 * Sets the regions of the screen which should be captured, such as the area of a presentation or of a single window.
+	 * <p/>
+	 * Only the given regions are grabbed from the screen, so the cost of each capture is proportional to their area. If there are several regions, they are stacked vertically, from the first to the last, into a single image.
+	 *
+	 * @param value The regions, in pixels relative to the top left corner of the screen, or {@code null} if the whole screen should be captured.
+	 */
+	public void setCaptureRegions(Rectangle... value)
+	{
+		if (value != null)
+		{
+			if (value.length == 0)
+			{
+				throw new IllegalArgumentException("At least one capture region must be provided!");
+			}
+			for (Rectangle region : value)
+			{
+				if (region == null)
+				{
+					throw new NullPointerException("The capture regions must not be null!");
+				}
+				if (region.isEmpty())
+				{
+					throw new IllegalArgumentException("The capture regions must not be empty!");
+				}
+			}
+			value = copyRegions(value);
+		}
+		this.captureRegions = value;
+	}
+
+	/**
+	 * Gets the interval between samples of the mouse pointer position.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getCursorSampleInterval()
+	{
+		return this.cursorSampleInterval;
+	}
+
+	/**
+	 * Sets the interval between samples of the mouse pointer position. It is usually much shorter than the interval between captures, as sampling the pointer is cheap.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setCursorSampleInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The cursor sample interval must be positive!");
+		}
+		this.cursorSampleInterval = value;
+	}
+
+	public void addCursorListener(CursorListener listener)
+	{
+		if (listener == null)
+		{
+			throw new NullPointerException("The listener must be provided!");
+		}
+		this.cursorListeners.add(listener);
+	}
+
+	public void removeCursorListener(CursorListener listener)
+	{
+		this.cursorListeners.remove(listener);
+	}
+
+	/**
+	 * Gets the last sampled position of the mouse pointer.
+	 *
+	 * @return The position, in pixels of the captured image.
+	 */
+	public CursorPosition getCursorPosition()
+	{
+		synchronized (this)
+		{
+			return this.cursorPosition;
+		}
+	}
+
 	public GraphicsDevice getSourceDevice()
 	{
 		return this.sourceDevice;
@@ -110,35 +400,47 @@ public class DesktopImageSource extends AbstractImageSource
 		GraphicsDevice currentDevice = null;
 
 		// polls the screen for changes.
-		long targetTimestamp = this.timeQuantum * (System.currentTimeMillis() / this.timeQuantum);
+		long lastTargetTimestamp = 0;
 		while (true)
 		{
-			// wait until the next timestamp.
-			long currentTimestamp = System.currentTimeMillis();
+			// wait until the next timestamp. the interval is read again whenever it changes, and there are no captures at all while no one is watching.
+			long currentTimestamp;
+			long targetTimestamp;
 			synchronized (this)
 			{
 				boolean continueRunning = this.shouldRun;
-				while (currentTimestamp < targetTimestamp)
+				while (true)
 				{
-					if (!continueRunning)
+					currentTimestamp = System.currentTimeMillis();
+					targetTimestamp = lastTargetTimestamp + this.currentCaptureInterval;
+					if (!continueRunning || (this.viewersPresent && currentTimestamp >= targetTimestamp))
 					{
 						break;
 					}
 					try
 					{
-						this.wait(targetTimestamp - currentTimestamp);
+						this.wait(this.viewersPresent ? targetTimestamp - currentTimestamp : 0);
 					}
 					catch (InterruptedException e)
 					{
 					}
 					continueRunning = this.shouldRun;
-					currentTimestamp = System.currentTimeMillis();
 				}
 				if (!continueRunning)
 				{
 					this.running = false;
 					break;
 				}
+
+				// keeps a steady cadence, unless a whole interval has been missed.
+				if (currentTimestamp - targetTimestamp >= this.currentCaptureInterval)
+				{
+					lastTargetTimestamp = currentTimestamp;
+				}
+				else
+				{
+					lastTargetTimestamp = targetTimestamp;
+				}
 			}
 
 			GraphicsDevice desiredDevice;
@@ -166,46 +468,239 @@ public class DesktopImageSource extends AbstractImageSource
 
 			if (robot != null)
 			{
-				// AWT doesn't provide a direct way to get the unscaled boundaries of a desktop screen.
-				// it provides a direct way to get the scaled boundaries of a desktop screen...
-				// and it provides a direct way to get the unscaled width and height...
-				// but it doesn't provide a direct way to get the unscaled offsets of the desktop screen...
-				// and we need the unscaled boundaries (offsets and dimensions) in order to get a screen capture!
+				Rectangle screenRectangle = getUnscaledBounds(currentDevice);
+
+				BufferedImage screenImage;
+				Rectangle[] captureRegions = this.captureRegions;
+				if (captureRegions == null)
+				{
+					screenImage = robot.createScreenCapture(screenRectangle);
+				}
+				else
+				{
+					screenImage = this.captureRegions(robot, screenRectangle, captureRegions);
+				}
+
+				// trigger the callbacks.
+				if (screenImage != null)
+				{
+					this.triggerCallbacks(screenImage);
+				}
+			}
+		}
+	}
+
+	private void runCursorSampling()
+	{
+		long lastTargetTimestamp = 0;
+		while (true)
+		{
+			// wait until the next timestamp. there is no sampling at all while no one is watching.
+			GraphicsDevice device;
+			synchronized (this)
+			{
+				boolean continueRunning = this.shouldRun;
+				while (true)
+				{
+					long currentTimestamp = System.currentTimeMillis();
+					long targetTimestamp = lastTargetTimestamp + this.cursorSampleInterval;
+					if (!continueRunning || (this.viewersPresent && currentTimestamp >= targetTimestamp))
+					{
+						lastTargetTimestamp = Math.max(targetTimestamp, currentTimestamp - this.cursorSampleInterval);
+						break;
+					}
+					try
+					{
+						this.wait(this.viewersPresent ? targetTimestamp - currentTimestamp : 0);
+					}
+					catch (InterruptedException e)
+					{
+					}
+					continueRunning = this.shouldRun;
+				}
+				if (!continueRunning)
+				{
+					this.cursorRunning = false;
+					break;
+				}
+				device = this.sourceDevice;
+			}
+
+			CursorPosition position;
+			try
+			{
+				position = locateCursor(MouseInfo.getPointerInfo(), device, this.captureRegions);
+			}
+			catch (RuntimeException e)
+			{
+				position = CursorPosition.HIDDEN;
+			}
+			this.updateCursorPosition(position);
+		}
+
+		// the viewers should not keep drawing a pointer which is no longer tracked.
+		this.updateCursorPosition(CursorPosition.HIDDEN);
+	}
+
+	private void updateCursorPosition(CursorPosition position)
+	{
+		synchronized (this)
+		{
+			if (position.equals(this.cursorPosition))
+			{
+				return;
+			}
+			this.cursorPosition = position;
+		}
+		for (CursorListener listener : this.cursorListeners)
+		{
+			listener.cursorMoved(position);
+		}
+	}
+
+	/**
+	 * Finds where the mouse pointer is within the captured image.
+	 *
+	 * @param pointerInfo The position of the pointer on the desktop, or {@code null} if it is unknown.
+	 * @param device The captured screen.
+	 * @param captureRegions The captured regions of the screen, or {@code null} if the whole screen is captured.
+	 * @return The position of the pointer, in pixels of the captured image.
+	 */
+	private static CursorPosition locateCursor(PointerInfo pointerInfo, GraphicsDevice device, Rectangle[] captureRegions)
+	{
+		if (pointerInfo == null || device == null || pointerInfo.getDevice() != device)
+		{
+			return CursorPosition.HIDDEN;
+		}
+
+		// the pointer is given in scaled pixels, while the screen is captured in unscaled pixels.
+		Rectangle scaledBoundaries = device.getDefaultConfiguration().getBounds();
+		Rectangle screenRectangle = getUnscaledBounds(device);
+		Point location = pointerInfo.getLocation();
+		int x = ((location.x - scaledBoundaries.x) * screenRectangle.width) / scaledBoundaries.width;
+		int y = ((location.y - scaledBoundaries.y) * screenRectangle.height) / scaledBoundaries.height;
+		if (captureRegions == null)
+		{
+			return new CursorPosition(x, y);
+		}
+
+		// the regions are stacked vertically, the same way they are captured.
+		Rectangle screen = new Rectangle(0, 0, screenRectangle.width, screenRectangle.height);
+		int offsetY = 0;
+		for (Rectangle captureRegion : captureRegions)
+		{
+			Rectangle rectangle = captureRegion.intersection(screen);
+			if (!rectangle.isEmpty())
+			{
+				if (rectangle.contains(x, y))
+				{
+					return new CursorPosition(x - rectangle.x, y - rectangle.y + offsetY);
+				}
+				offsetY += rectangle.height;
+			}
+		}
+		return CursorPosition.HIDDEN;
+	}
 
-				// in order to get the unscaled boundaries, we're first guessing the scaling factor.
-				// we can do that because we have the unscaled and scaled dimensions of the desktop screen.
-				// with the scaling factor, we are able to calculate the unscaled offsets of the destkop screen!
+	/**
+	 * Gets the boundaries of a screen in unscaled pixels, which is what {@link Robot#createScreenCapture(Rectangle)} expects.
+	 *
+	 * @param device The screen.
+	 * @return The boundaries.
+	 */
+	static Rectangle getUnscaledBounds(GraphicsDevice device)
+	{
+		// AWT doesn't provide a direct way to get the unscaled boundaries of a desktop screen.
+		// it provides a direct way to get the scaled boundaries of a desktop screen...
+		// and it provides a direct way to get the unscaled width and height...
+		// but it doesn't provide a direct way to get the unscaled offsets of the desktop screen...
+		// and we need the unscaled boundaries (offsets and dimensions) in order to get a screen capture!
 
-				Rectangle scaledBoundaries = currentDevice.getDefaultConfiguration().getBounds();
-				DisplayMode displayMode = currentDevice.getDisplayMode();
+		// in order to get the unscaled boundaries, we're first guessing the scaling factor.
+		// we can do that because we have the unscaled and scaled dimensions of the desktop screen.
+		// with the scaling factor, we are able to calculate the unscaled offsets of the destkop screen!
 
-				int width = displayMode.getWidth();
-				int height = displayMode.getHeight();
+		Rectangle scaledBoundaries = device.getDefaultConfiguration().getBounds();
+		DisplayMode displayMode = device.getDisplayMode();
 
-				int offsetX = (scaledBoundaries.x * width) / scaledBoundaries.width;
-				int offsetY = (scaledBoundaries.y * height) / scaledBoundaries.height;
+		int width = displayMode.getWidth();
+		int height = displayMode.getHeight();
 
-				Rectangle screenRectangle = new Rectangle(offsetX, offsetY, width, height);
+		int offsetX = (scaledBoundaries.x * width) / scaledBoundaries.width;
+		int offsetY = (scaledBoundaries.y * height) / scaledBoundaries.height;
 
-				BufferedImage screenImage = robot.createScreenCapture(screenRectangle);
+		return new Rectangle(offsetX, offsetY, width, height);
+	}
 
-				// trigger the callbacks.
-				this.triggerCallbacks(screenImage);
+	/**
+	 * Captures some regions of a screen into a single image.
+	 *
+	 * @param robot The robot which captures the screen.
+	 * @param screenRectangle The unscaled boundaries of the screen.
+	 * @param captureRegions The regions, relative to the top left corner of the screen.
+	 * @return The image, or {@code null} if no region is within the screen.
+	 */
+	private BufferedImage captureRegions(Robot robot, Rectangle screenRectangle, Rectangle[] captureRegions)
+	{
+		// clips the regions to the screen.
+		ArrayList<Rectangle> rectangles = new ArrayList<Rectangle>(captureRegions.length);
+		int width = 0;
+		int height = 0;
+		for (Rectangle captureRegion : captureRegions)
+		{
+			Rectangle rectangle = new Rectangle(screenRectangle.x + captureRegion.x, screenRectangle.y + captureRegion.y, captureRegion.width, captureRegion.height).intersection(screenRectangle);
+			if (!rectangle.isEmpty())
+			{
+				rectangles.add(rectangle);
+				width = Math.max(width, rectangle.width);
+				height += rectangle.height;
 			}
+		}
 
-			// calculate the time of the next capture.
-			currentTimestamp = System.currentTimeMillis();
-			targetTimestamp += this.timeQuantum;
-			while (targetTimestamp < currentTimestamp)
+		if (rectangles.isEmpty())
+		{
+			return null;
+		}
+		if (rectangles.size() == 1)
+		{
+			return robot.createScreenCapture(rectangles.get(0));
+		}
+
+		// stacks the regions vertically.
+		BufferedImage image = this.borrowImage(width, height);
+		Graphics2D graphics = image.createGraphics();
+		try
+		{
+			graphics.setColor(Color.BLACK);
+			graphics.fillRect(0, 0, width, height);
+			int y = 0;
+			for (Rectangle rectangle : rectangles)
 			{
-				targetTimestamp += this.timeQuantum;
+				graphics.drawImage(robot.createScreenCapture(rectangle), 0, y, null);
+				y += rectangle.height;
 			}
 		}
+		finally
+		{
+			graphics.dispose();
+		}
+		return image;
+	}
+
+	private static Rectangle[] copyRegions(Rectangle[] regions)
+	{
+		Rectangle[] copy = new Rectangle[regions.length];
+		for (int i = 0; i < regions.length; i++)
+		{
+			copy[i] = new Rectangle(regions[i]);
+		}
+		return copy;
 	}
 
 	private void updateRunningStatus()
 	{
 		boolean startNow = false;
+		boolean startCursorNow = false;
 
 		boolean shouldRun = this.shouldActivate && this.sourceDevice != null;
 		synchronized (this)
@@ -220,10 +715,15 @@ public class DesktopImageSource extends AbstractImageSource
 						this.running = true;
 						startNow = true;
 					}
+					if (!this.cursorRunning)
+					{
+						this.cursorRunning = true;
+						startCursorNow = true;
+					}
 				}
 				else
 				{
-					if (this.running)
+					if (this.running || this.cursorRunning)
 					{
 						this.notifyAll();
 					}
@@ -243,5 +743,19 @@ public class DesktopImageSource extends AbstractImageSource
 			});
 			thread.start();
 		}
+
+		if (startCursorNow)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					DesktopImageSource.this.runCursorSampling();
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
 	}
 }
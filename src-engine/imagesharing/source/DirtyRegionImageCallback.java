@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A {@link ImageCallback} which is also told which regions of each image have changed.
+ * <p/>
+ * Image sources which know what they have drawn use this to spare their consumers from comparing the whole image. Sources which do not know it keep calling {@link #handleImage(BufferedImage)}.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public interface DirtyRegionImageCallback extends ImageCallback
+{
+	/**
+	 * Handles an image, along with the regions which have changed since the previous image of the same source.
+	 * <p/>
+	 * The first image of a source must not have dirty regions, since there is no previous image.
+	 *
+	 * @param image The image.
+	 * @param dirtyRegions The regions which have changed, or {@code null} if they are unknown.
+	 */
+	public void handleImage(BufferedImage image, Rectangle[] dirtyRegions);
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An agent which watches an image file and triggers callbacks whenever the file changes.
+ * <p/>
+ * The file is watched through a {@link WatchService}, so it is not polled. Since another process may take a while to write the file, it is only read once it has not been touched for a {@link #getDebounceInterval() debounce interval}. The file is only decoded if its contents have actually changed, and it is decoded straight into an image borrowed from the image pool whenever its format allows.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class FileWatchImageSource extends AbstractImageSource
+{
+	private static final long RETRY_INTERVAL = 1000;
+
+	private final File file;
+
+	private volatile long debounceInterval = 200;
+
+	private byte[] fileData = new byte[0];
+	private boolean hasChecksum = false;
+	private long lastChecksum = 0;
+	private boolean decodeIntoDestination = true;
+
+	private volatile boolean shouldActivate = false;
+
+	private volatile boolean shouldRun = false;
+	private volatile boolean running = false;
+	private WatchService watchService = null;
+
+	public FileWatchImageSource(File file)
+	{
+		if (file == null)
+		{
+			throw new NullPointerException("The file must be provided!");
+		}
+		this.file = file.getAbsoluteFile();
+	}
+
+	@Override
+	public void activate()
+	{
+		this.shouldActivate = true;
+		this.updateRunningStatus();
+	}
+
+	@Override
+	public void deactivate()
+	{
+		this.shouldActivate = false;
+		this.updateRunningStatus();
+	}
+
+	public File getFile()
+	{
+		return this.file;
+	}
+
+	/**
+	 * Gets how long the file must remain untouched before it is read.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getDebounceInterval()
+	{
+		return this.debounceInterval;
+	}
+
+	/**
+	 * Sets how long the file must remain untouched before it is read, so a file which is still being written is not read.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setDebounceInterval(long value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("The debounce interval must not be negative!");
+		}
+		this.debounceInterval = value;
+	}
+
+	private void run()
+	{
+		boolean reportFailure = true;
+		while (true)
+		{
+			boolean closed;
+			try
+			{
+				closed = this.watch();
+				reportFailure = true;
+			}
+			catch (IOException e)
+			{
+				// the directory may not exist yet. the failure is reported only once until the file can be watched again.
+				if (reportFailure)
+				{
+					e.printStackTrace();
+					reportFailure = false;
+				}
+				closed = false;
+			}
+
+			synchronized (this)
+			{
+				// if the file could not be watched, such as when its directory is being recreated, tries again after a while.
+				long targetTimestamp = System.currentTimeMillis() + RETRY_INTERVAL;
+				long currentTimestamp = System.currentTimeMillis();
+				while (!closed && this.shouldRun && currentTimestamp < targetTimestamp)
+				{
+					try
+					{
+						this.wait(targetTimestamp - currentTimestamp);
+					}
+					catch (InterruptedException e)
+					{
+					}
+					currentTimestamp = System.currentTimeMillis();
+				}
+
+				// the source may have been activated again right after the watch service was closed.
+				if (!this.shouldRun)
+				{
+					this.running = false;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Watches the file until the watch service is closed.
+	 *
+	 * @return If the watch service was closed, rather than the directory of the file being removed.
+	 * @throws IOException If the directory of the file cannot be watched.
+	 */
+	private boolean watch() throws IOException
+	{
+		WatchService watchService = null;
+		try
+		{
+			Path directory = this.file.getParentFile().toPath();
+			Path fileName = this.file.toPath().getFileName();
+
+			watchService = FileSystems.getDefault().newWatchService();
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			synchronized (this)
+			{
+				if (!this.shouldRun)
+				{
+					return true;
+				}
+				this.watchService = watchService;
+			}
+
+			// the file is read and published right away, as it may have changed while this source was not active.
+			this.hasChecksum = false;
+			boolean pending = true;
+			while (true)
+			{
+				// while the file is being written, waits until it is no longer touched.
+				WatchKey key = pending ? watchService.poll(this.debounceInterval, TimeUnit.MILLISECONDS) : watchService.take();
+				if (key == null)
+				{
+					this.readFile();
+					pending = false;
+					continue;
+				}
+
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()))
+					{
+						pending = true;
+					}
+				}
+				if (!key.reset())
+				{
+					// the directory no longer exists.
+					return false;
+				}
+			}
+		}
+		catch (ClosedWatchServiceException e)
+		{
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			return false;
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				if (this.watchService == watchService)
+				{
+					this.watchService = null;
+				}
+			}
+			if (watchService != null)
+			{
+				try
+				{
+					watchService.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the file, then decodes it and triggers the callbacks if its contents have changed.
+	 */
+	private void readFile()
+	{
+		int length;
+		try
+		{
+			length = this.readFileData();
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(this.fileData, 0, length);
+		long checksum = crc.getValue();
+		if (this.hasChecksum && checksum == this.lastChecksum)
+		{
+			return;
+		}
+
+		BufferedImage image = this.decode(length);
+		if (image != null)
+		{
+			// the checksum is only kept if the file could be decoded, so a broken file is read again when it changes.
+			this.hasChecksum = true;
+			this.lastChecksum = checksum;
+			this.triggerCallbacks(image);
+		}
+	}
+
+	/**
+	 * Reads the whole file into the reusable buffer.
+	 *
+	 * @return The length of the file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private int readFileData() throws IOException
+	{
+		InputStream stream = new FileInputStream(this.file);
+		try
+		{
+			long fileLength = this.file.length();
+			if (fileLength > Integer.MAX_VALUE - 1)
+			{
+				throw new IOException("The file is too large!");
+			}
+			if (this.fileData.length < fileLength + 1)
+			{
+				this.fileData = new byte[(int) fileLength + 1];
+			}
+
+			// the file may have grown since its length was read.
+			int length = 0;
+			while (true)
+			{
+				if (length == this.fileData.length)
+				{
+					byte[] fileData = new byte[this.fileData.length * 2];
+					System.arraycopy(this.fileData, 0, fileData, 0, length);
+					this.fileData = fileData;
+				}
+				int count = stream.read(this.fileData, length, this.fileData.length - length);
+				if (count < 0)
+				{
+					break;
+				}
+				length += count;
+			}
+			return length;
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Decodes the file from the reusable buffer.
+	 *
+	 * @param length The length of the file.
+	 * @return The image, or {@code null} if the file cannot be decoded.
+	 */
+	private BufferedImage decode(int length)
+	{
+		// the image is decoded straight into a borrowed image, unless its format does not allow it.
+		if (this.decodeIntoDestination)
+		{
+			ImageReader reader = null;
+			BufferedImage image = null;
+			boolean mismatch = false;
+			try
+			{
+				ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(this.fileData, 0, length));
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+				if (!readers.hasNext())
+				{
+					return null;
+				}
+				reader = readers.next();
+				reader.setInput(stream, true, true);
+
+				image = this.borrowImage(reader.getWidth(0), reader.getHeight(0));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setDestination(image);
+				return reader.read(0, param);
+			}
+			catch (IIOException e)
+			{
+				// the readers reject a destination of the wrong type this way, before reading any pixels.
+				mismatch = image != null;
+			}
+			catch (IllegalArgumentException e)
+			{
+				mismatch = image != null;
+			}
+			catch (IOException e)
+			{
+			}
+			catch (RuntimeException e)
+			{
+			}
+			finally
+			{
+				if (reader != null)
+				{
+					reader.dispose();
+				}
+			}
+
+			if (image != null)
+			{
+				this.returnImage(image);
+			}
+			if (!mismatch)
+			{
+				return null;
+			}
+
+			// a broken file, such as one which is still being written, fails the same way. so the format is only blamed if the file can be decoded otherwise.
+			image = this.decodeAndDraw(length);
+			if (image != null)
+			{
+				this.decodeIntoDestination = false;
+			}
+			return image;
+		}
+		return this.decodeAndDraw(length);
+	}
+
+	/**
+	 * Decodes the file from the reusable buffer on its own, then draws it into a borrowed image.
+	 *
+	 * @param length The length of the file.
+	 * @return The image, or {@code null} if the file cannot be decoded.
+	 */
+	private BufferedImage decodeAndDraw(int length)
+	{
+		BufferedImage decodedImage;
+		try
+		{
+			decodedImage = ImageIO.read(new ByteArrayInputStream(this.fileData, 0, length));
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+		if (decodedImage == null)
+		{
+			return null;
+		}
+		BufferedImage image = this.borrowImage(decodedImage.getWidth(), decodedImage.getHeight());
+		Graphics2D graphics = image.createGraphics();
+		try
+		{
+			graphics.setColor(Color.BLACK);
+			graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+			graphics.drawImage(decodedImage, 0, 0, null);
+		}
+		finally
+		{
+			graphics.dispose();
+		}
+		return image;
+	}
+
+	private void updateRunningStatus()
+	{
+		boolean startNow = false;
+		WatchService watchService = null;
+
+		boolean shouldRun = this.shouldActivate;
+		synchronized (this)
+		{
+			if (shouldRun != this.shouldRun)
+			{
+				this.shouldRun = shouldRun;
+				if (shouldRun)
+				{
+					if (!this.running)
+					{
+						this.running = true;
+						startNow = true;
+					}
+				}
+				else
+				{
+					if (this.running)
+					{
+						this.notifyAll();
+						watchService = this.watchService;
+					}
+				}
+			}
+		}
+
+		// closing the watch service wakes the thread up.
+		if (watchService != null)
+		{
+			try
+			{
+				watchService.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+
+		if (startNow)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					FileWatchImageSource.this.run();
+				}
+			});
+			thread.start();
+		}
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * An agent which reads raw pixels from a memory-mapped file at a given interval and triggers callbacks whenever they change.
+ * <p/>
+ * The file may be a framebuffer device, such as {@code /dev/fb0}, or a plain file to which some other process writes raw pixels. Unlike {@link DesktopImageSource}, this source needs neither a display nor AWT, and reading the pixels costs little more than copying memory.
+ * <p/>
+ * A copy of the previous raw pixels is kept, and only the scanlines which differ from it are converted. The callbacks are not triggered at all if nothing has changed, and the bands of changed scanlines are reported to callbacks which support them.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class FramebufferImageSource extends AbstractImageSource
+{
+	private final File file;
+	private final int width;
+	private final int height;
+	private final int scanlineStride;
+	private final long offset;
+	private final FramebufferPixelFormat pixelFormat;
+
+	private volatile long captureInterval = 100;
+
+	private volatile boolean shouldActivate = false;
+
+	private volatile boolean shouldRun = false;
+	private volatile boolean running = false;
+
+	/**
+	 * Creates a source for a file with tightly packed scanlines which starts with the pixels.
+	 *
+	 * @param file The file.
+	 * @param width The width of the image, in pixels.
+	 * @param height The height of the image, in pixels.
+	 * @param pixelFormat The layout of the pixels.
+	 */
+	public FramebufferImageSource(File file, int width, int height, FramebufferPixelFormat pixelFormat)
+	{
+		this(file, width, height, pixelFormat != null ? width * pixelFormat.getBytesPerPixel() : 0, 0, pixelFormat);
+	}
+
+	/**
+	 * Creates a source.
+	 *
+	 * @param file The file.
+	 * @param width The width of the image, in pixels.
+	 * @param height The height of the image, in pixels.
+	 * @param scanlineStride The distance between two vertically adjacent pixels, in bytes.
+	 * @param offset The position of the first pixel within the file, in bytes.
+	 * @param pixelFormat The layout of the pixels.
+	 */
+	public FramebufferImageSource(File file, int width, int height, int scanlineStride, long offset, FramebufferPixelFormat pixelFormat)
+	{
+		if (file == null)
+		{
+			throw new NullPointerException("The file must be provided!");
+		}
+		if (pixelFormat == null)
+		{
+			throw new NullPointerException("The pixel format must be provided!");
+		}
+		if (width <= 0 || height <= 0)
+		{
+			throw new IllegalArgumentException("The image size must be positive!");
+		}
+		if (scanlineStride < width * pixelFormat.getBytesPerPixel())
+		{
+			throw new IllegalArgumentException("The scanline stride must fit a whole scanline!");
+		}
+		if (offset < 0)
+		{
+			throw new IllegalArgumentException("The offset must not be negative!");
+		}
+		if ((long) scanlineStride * height > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("The image is too large!");
+		}
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.scanlineStride = scanlineStride;
+		this.offset = offset;
+		this.pixelFormat = pixelFormat;
+	}
+
+	@Override
+	public void activate()
+	{
+		this.shouldActivate = true;
+		this.updateRunningStatus();
+	}
+
+	@Override
+	public void deactivate()
+	{
+		this.shouldActivate = false;
+		this.updateRunningStatus();
+	}
+
+	public File getFile()
+	{
+		return this.file;
+	}
+
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	public int getHeight()
+	{
+		return this.height;
+	}
+
+	public int getScanlineStride()
+	{
+		return this.scanlineStride;
+	}
+
+	public long getOffset()
+	{
+		return this.offset;
+	}
+
+	public FramebufferPixelFormat getPixelFormat()
+	{
+		return this.pixelFormat;
+	}
+
+	/**
+	 * Gets the interval between captures.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getCaptureInterval()
+	{
+		return this.captureInterval;
+	}
+
+	/**
+	 * Sets the interval between captures.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setCaptureInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The capture interval must be positive!");
+		}
+		this.captureInterval = value;
+	}
+
+	private void run()
+	{
+		int rowLength = this.width * this.pixelFormat.getBytesPerPixel();
+		int mappedLength = this.scanlineStride * (this.height - 1) + rowLength;
+
+		MappedByteBuffer mappedPixels = null;
+		ByteBuffer row = null;
+		byte[] previousPixels = new byte[rowLength * this.height];
+		ByteBuffer previousRow = ByteBuffer.wrap(previousPixels);
+		int[] pixels = new int[this.width * this.height];
+		boolean first = true;
+
+		long lastTargetTimestamp = 0;
+		while (true)
+		{
+			// wait until the next timestamp.
+			long currentTimestamp;
+			long targetTimestamp;
+			synchronized (this)
+			{
+				boolean continueRunning = this.shouldRun;
+				while (true)
+				{
+					currentTimestamp = System.currentTimeMillis();
+					targetTimestamp = lastTargetTimestamp + this.captureInterval;
+					if (!continueRunning || currentTimestamp >= targetTimestamp)
+					{
+						break;
+					}
+					try
+					{
+						this.wait(targetTimestamp - currentTimestamp);
+					}
+					catch (InterruptedException e)
+					{
+					}
+					continueRunning = this.shouldRun;
+				}
+				if (!continueRunning)
+				{
+					this.running = false;
+					break;
+				}
+
+				// keeps a steady cadence, unless a whole interval has been missed.
+				if (currentTimestamp - targetTimestamp >= this.captureInterval)
+				{
+					lastTargetTimestamp = currentTimestamp;
+				}
+				else
+				{
+					lastTargetTimestamp = targetTimestamp;
+				}
+			}
+
+			// the file is mapped once, and mapped again only if it could not be mapped before.
+			if (mappedPixels == null)
+			{
+				mappedPixels = this.map(mappedLength);
+				if (mappedPixels == null)
+				{
+					continue;
+				}
+				row = mappedPixels.duplicate();
+			}
+
+			// only the scanlines which differ from the previous capture are copied and converted.
+			ArrayList<Rectangle> dirtyRegions = new ArrayList<Rectangle>();
+			Rectangle band = null;
+			for (int y = 0; y < this.height; y++)
+			{
+				// the same views are moved over each scanline, so nothing is allocated per scanline.
+				row.limit(y * this.scanlineStride + rowLength);
+				row.position(y * this.scanlineStride);
+				int previousOffset = y * rowLength;
+				previousRow.limit(previousOffset + rowLength);
+				previousRow.position(previousOffset);
+				if (first || !row.equals(previousRow))
+				{
+					row.get(previousPixels, previousOffset, rowLength);
+					this.pixelFormat.toRGB(previousPixels, previousOffset, pixels, y * this.width, this.width);
+					if (band != null && band.y + band.height == y)
+					{
+						band.height++;
+					}
+					else
+					{
+						band = new Rectangle(0, y, this.width, 1);
+						dirtyRegions.add(band);
+					}
+				}
+			}
+
+			// trigger the callbacks.
+			if (!dirtyRegions.isEmpty())
+			{
+				BufferedImage image = this.borrowImage(this.width, this.height);
+				image.getRaster().setDataElements(0, 0, this.width, this.height, pixels);
+				this.triggerCallbacks(image, first ? null : dirtyRegions.toArray(new Rectangle[dirtyRegions.size()]));
+				first = false;
+			}
+		}
+	}
+
+	/**
+	 * Maps the pixels of the file.
+	 *
+	 * @param length The number of bytes to map.
+	 * @return The mapped pixels, or {@code null} if the file cannot be mapped yet.
+	 */
+	private MappedByteBuffer map(int length)
+	{
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(this.file, "r");
+			try
+			{
+				// devices may report a length of zero, so only plain files are checked.
+				if (this.file.isFile() && file.length() < this.offset + length)
+				{
+					return null;
+				}
+
+				// the mapping remains valid after the file is closed.
+				return file.getChannel().map(FileChannel.MapMode.READ_ONLY, this.offset, length);
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	private void updateRunningStatus()
+	{
+		boolean startNow = false;
+
+		boolean shouldRun = this.shouldActivate;
+		synchronized (this)
+		{
+			if (shouldRun != this.shouldRun)
+			{
+				this.shouldRun = shouldRun;
+				if (shouldRun)
+				{
+					if (!this.running)
+					{
+						this.running = true;
+						startNow = true;
+					}
+				}
+				else
+				{
+					if (this.running)
+					{
+						this.notifyAll();
+					}
+				}
+			}
+		}
+
+		if (startNow)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					FramebufferImageSource.this.run();
+				}
+			});
+			thread.start();
+		}
+	}
+}
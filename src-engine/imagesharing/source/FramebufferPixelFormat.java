@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+/**
+ * The layouts of raw pixels a {@link FramebufferImageSource} can read.
+ * <p/>
+ * The names follow the Linux DRM convention, where the components are listed from the most significant bit to the least significant bit of a little-endian word.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public enum FramebufferPixelFormat
+{
+	/**
+	 * 32 bits per pixel, stored as blue, green, red and an unused byte. This is the usual format of Linux framebuffers.
+	 */
+	XRGB_8888(4)
+	{
+		@Override
+		void toRGB(byte[] data, int offset, int[] pixels, int pixelOffset, int width)
+		{
+			for (int i = 0; i < width; i++, offset += 4)
+			{
+				pixels[pixelOffset + i] = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16);
+			}
+		}
+	},
+
+	/**
+	 * 32 bits per pixel, stored as red, green, blue and an unused byte.
+	 */
+	XBGR_8888(4)
+	{
+		@Override
+		void toRGB(byte[] data, int offset, int[] pixels, int pixelOffset, int width)
+		{
+			for (int i = 0; i < width; i++, offset += 4)
+			{
+				pixels[pixelOffset + i] = ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+			}
+		}
+	},
+
+	/**
+	 * 24 bits per pixel, stored as blue, green and red.
+	 */
+	RGB_888(3)
+	{
+		@Override
+		void toRGB(byte[] data, int offset, int[] pixels, int pixelOffset, int width)
+		{
+			for (int i = 0; i < width; i++, offset += 3)
+			{
+				pixels[pixelOffset + i] = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16);
+			}
+		}
+	},
+
+	/**
+	 * 24 bits per pixel, stored as red, green and blue.
+	 */
+	BGR_888(3)
+	{
+		@Override
+		void toRGB(byte[] data, int offset, int[] pixels, int pixelOffset, int width)
+		{
+			for (int i = 0; i < width; i++, offset += 3)
+			{
+				pixels[pixelOffset + i] = ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+			}
+		}
+	},
+
+	/**
+	 * 16 bits per pixel, as a little-endian word with 5 bits of red, 6 bits of green and 5 bits of blue.
+	 */
+	RGB_565(2)
+	{
+		@Override
+		void toRGB(byte[] data, int offset, int[] pixels, int pixelOffset, int width)
+		{
+			for (int i = 0; i < width; i++, offset += 2)
+			{
+				int value = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+				int red = (value >>> 11) & 0x1F;
+				int green = (value >>> 5) & 0x3F;
+				int blue = value & 0x1F;
+
+				// the most significant bits are repeated, so white is still white.
+				red = (red << 3) | (red >>> 2);
+				green = (green << 2) | (green >>> 4);
+				blue = (blue << 3) | (blue >>> 2);
+				pixels[pixelOffset + i] = (red << 16) | (green << 8) | blue;
+			}
+		}
+	};
+
+	private final int bytesPerPixel;
+
+	private FramebufferPixelFormat(int bytesPerPixel)
+	{
+		this.bytesPerPixel = bytesPerPixel;
+	}
+
+	/**
+	 * Gets the number of bytes each pixel takes.
+	 *
+	 * @return The number of bytes.
+	 */
+	public int getBytesPerPixel()
+	{
+		return this.bytesPerPixel;
+	}
+
+	/**
+	 * Converts a run of raw pixels into RGB values, as stored by {@link java.awt.image.BufferedImage#TYPE_INT_RGB} images.
+	 *
+	 * @param data The raw pixels.
+	 * @param offset The index of the first byte of the run.
+	 * @param pixels The array which receives the RGB values.
+	 * @param pixelOffset The index which receives the first RGB value.
+	 * @param width The number of pixels in the run.
+	 */
+	abstract void toRGB(byte[] data, int offset, int[] pixels, int pixelOffset, int width);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * The callbacks of an image source.
+ * <p/>
+ * The callbacks are kept in an array which is replaced, rather than modified, whenever a callback is added or removed. Triggering the callbacks reads the current array without taking any lock or allocating anything, so delivering images never waits for callbacks to be added or removed.
+ *
+ * @author Felipe Michels Fontoura
+ */
+final class ImageCallbackRegistry
+{
+	private static final ImageCallback[] NO_CALLBACKS = new ImageCallback[0];
+
+	private final Object lock = new Object();
+	private volatile ImageCallback[] callbacks = NO_CALLBACKS;
+
+	public void add(ImageCallback callback)
+	{
+		if (callback == null)
+		{
+			throw new NullPointerException("The callback must be provided!");
+		}
+		synchronized (this.lock)
+		{
+			ImageCallback[] callbacks = this.callbacks;
+			ImageCallback[] newCallbacks = new ImageCallback[callbacks.length + 1];
+			System.arraycopy(callbacks, 0, newCallbacks, 0, callbacks.length);
+			newCallbacks[callbacks.length] = callback;
+			this.callbacks = newCallbacks;
+		}
+	}
+
+	/**
+	 * Removes a callback. If it has been added more than once, only one of the occurrences is removed.
+	 *
+	 * @param callback The callback.
+	 * @return If the callback has been removed.
+	 */
+	public boolean remove(ImageCallback callback)
+	{
+		synchronized (this.lock)
+		{
+			ImageCallback[] callbacks = this.callbacks;
+			for (int i = 0; i < callbacks.length; i++)
+			{
+				if (callbacks[i].equals(callback))
+				{
+					ImageCallback[] newCallbacks = callbacks.length == 1 ? NO_CALLBACKS : new ImageCallback[callbacks.length - 1];
+					System.arraycopy(callbacks, 0, newCallbacks, 0, i);
+					System.arraycopy(callbacks, i + 1, newCallbacks, i, callbacks.length - i - 1);
+					this.callbacks = newCallbacks;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	public boolean isEmpty()
+	{
+		return this.callbacks.length == 0;
+	}
+
+	/**
+	 * Triggers the callbacks for an image, telling the callbacks which support it which regions have changed.
+	 * <p/>
+	 * The callbacks added or removed meanwhile are only affected by the next image.
+	 *
+	 * @param image The image.
+	 * @param dirtyRegions The regions which have changed since the previous image, or {@code null} if they are unknown.
+	 */
+	public void trigger(BufferedImage image, Rectangle[] dirtyRegions)
+	{
+		ImageCallback[] callbacks = this.callbacks;
+		for (int i = 0; i < callbacks.length; i++)
+		{
+			if (dirtyRegions != null && callbacks[i] instanceof DirtyRegionImageCallback)
+			{
+				((DirtyRegionImageCallback) callbacks[i]).handleImage(image, dirtyRegions);
+			}
+			else
+			{
+				callbacks[i].handleImage(image);
+			}
+		}
+	}
+}
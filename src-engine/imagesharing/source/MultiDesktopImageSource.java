@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import imagesharing.util.RunOnceRunnable;
+
+import java.awt.AWTException;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An agent which captures several desktop screens at a given interval and triggers callbacks for each capture.
+ * <p/>
+ * All screens are captured at the same tick, each one by a thread of its own, so the screens are not captured one after the other. The callbacks of this source receive a single image with all screens stitched together, laid out as they are on the desktop. The callbacks of the {@link #getDeviceImageSource(GraphicsDevice) device sources} receive the image of a single screen.
+ * <p/>
+ * The screens are only stitched together if this source has callbacks, so a source used only through its device sources does not pay for it.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class MultiDesktopImageSource extends AbstractImageSource
+{
+	private volatile long captureInterval = 100;
+	private volatile GraphicsDevice[] sourceDevices = null;
+
+	private final HashMap<GraphicsDevice, DeviceImageSource> deviceImageSources = new HashMap<GraphicsDevice, DeviceImageSource>();
+
+	private boolean shouldActivate = false;
+	private int activeDeviceImageSources = 0;
+	private boolean shouldRun = false;
+	private boolean running = false;
+
+	public MultiDesktopImageSource()
+	{
+	}
+
+	@Override
+	public void activate()
+	{
+		synchronized (this)
+		{
+			this.shouldActivate = true;
+		}
+		this.updateRunningStatus();
+	}
+
+	@Override
+	public void deactivate()
+	{
+		synchronized (this)
+		{
+			this.shouldActivate = false;
+		}
+		this.updateRunningStatus();
+	}
+
+	/**
+	 * Gets the interval between captures.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getCaptureInterval()
+	{
+		return this.captureInterval;
+	}
+
+	/**
+	 * Sets the interval between captures.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setCaptureInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The capture interval must be positive!");
+		}
+		this.captureInterval = value;
+	}
+
+	/**
+	 * Gets the screens which are captured.
+	 *
+	 * @return The screens, or {@code null} if all screens are captured.
+	 */
+	public GraphicsDevice[] getSourceDevices()
+	{
+		GraphicsDevice[] sourceDevices = this.sourceDevices;
+		return sourceDevices != null ? sourceDevices.clone() : null;
+	}
+
+	/**
+	 * Sets the screens which should be captured.
+	 *
+	 * @param value The screens, or {@code null} if all screens should be captured, including the ones connected later.
+	 */
+	public void setSourceDevices(GraphicsDevice... value)
+	{
+		this.sourceDevices = value != null ? value.clone() : null;
+	}
+
+	/**
+	 * Gets a source which triggers its callbacks with the captures of a single screen.
+	 * <p/>
+	 * Activating the device source activates this source, and the screen is captured only if it is one of the {@link #getSourceDevices() source devices}.
+	 *
+	 * @param device The screen.
+	 * @return The device source.
+	 */
+	public ImageSource getDeviceImageSource(GraphicsDevice device)
+	{
+		if (device == null)
+		{
+			throw new NullPointerException("The device must be provided!");
+		}
+		synchronized (this.deviceImageSources)
+		{
+			DeviceImageSource deviceImageSource = this.deviceImageSources.get(device);
+			if (deviceImageSource == null)
+			{
+				deviceImageSource = new DeviceImageSource();
+				this.deviceImageSources.put(device, deviceImageSource);
+			}
+			return deviceImageSource;
+		}
+	}
+
+	private void run()
+	{
+		ExecutorService executor = null;
+		DeviceCapture[] captures = new DeviceCapture[0];
+		try
+		{
+			long targetTimestamp = System.currentTimeMillis();
+			while (true)
+			{
+				// wait until the next timestamp.
+				long currentTimestamp = System.currentTimeMillis();
+				synchronized (this)
+				{
+					boolean continueRunning = this.shouldRun;
+					while (continueRunning && currentTimestamp < targetTimestamp)
+					{
+						try
+						{
+							this.wait(targetTimestamp - currentTimestamp);
+						}
+						catch (InterruptedException e)
+						{
+						}
+						continueRunning = this.shouldRun;
+						currentTimestamp = System.currentTimeMillis();
+					}
+					if (!continueRunning)
+					{
+						this.running = false;
+						break;
+					}
+				}
+
+				// keeps the robots of the screens which are still captured.
+				GraphicsDevice[] devices = this.sourceDevices;
+				if (devices == null)
+				{
+					devices = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+				}
+				captures = updateCaptures(captures, devices);
+
+				// screens connected later are captured by this thread if there are not enough worker threads.
+				if (captures.length > 1 && executor == null)
+				{
+					executor = createExecutor(captures.length);
+				}
+
+				this.capture(captures, executor);
+
+				// calculate the time of the next capture.
+				long captureInterval = this.captureInterval;
+				currentTimestamp = System.currentTimeMillis();
+				targetTimestamp += captureInterval;
+				while (targetTimestamp < currentTimestamp)
+				{
+					targetTimestamp += captureInterval;
+				}
+			}
+		}
+		finally
+		{
+			if (executor != null)
+			{
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Captures all screens at once, then triggers the callbacks.
+	 *
+	 * @param captures The screens.
+	 * @param executor The executor of the worker threads, or {@code null}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void capture(DeviceCapture[] captures, ExecutorService executor)
+	{
+		RunOnceRunnable<DeviceCapture>[] tasks = new RunOnceRunnable[captures.length];
+		for (int i = 0; i < captures.length; i++)
+		{
+			tasks[i] = new RunOnceRunnable<DeviceCapture>(captures[i]);
+		}
+
+		// the worker threads capture the screens, while this thread captures whatever they have not picked up yet.
+		if (executor != null)
+		{
+			try
+			{
+				for (int i = 1; i < tasks.length; i++)
+				{
+					executor.execute(tasks[i]);
+				}
+			}
+			catch (RejectedExecutionException e)
+			{
+			}
+		}
+		for (int i = 0; i < tasks.length; i++)
+		{
+			tasks[i].run();
+		}
+		for (int i = 0; i < tasks.length; i++)
+		{
+			while (true)
+			{
+				try
+				{
+					tasks[i].join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+
+		// hands each screen to its own device source.
+		for (DeviceCapture capture : captures)
+		{
+			if (capture.image != null)
+			{
+				DeviceImageSource deviceImageSource;
+				synchronized (this.deviceImageSources)
+				{
+					deviceImageSource = this.deviceImageSources.get(capture.device);
+				}
+				if (deviceImageSource != null)
+				{
+					deviceImageSource.triggerCallbacks(capture.image);
+				}
+			}
+		}
+
+		// stitches the screens together, as they are laid out on the desktop.
+		if (this.hasCallbacks())
+		{
+			Rectangle union = null;
+			for (DeviceCapture capture : captures)
+			{
+				if (capture.image != null)
+				{
+					union = union == null ? new Rectangle(capture.bounds) : union.union(capture.bounds);
+				}
+			}
+			if (union != null)
+			{
+				BufferedImage image = this.borrowImage(union.width, union.height);
+				Graphics2D graphics = image.createGraphics();
+				try
+				{
+					graphics.setColor(Color.BLACK);
+					graphics.fillRect(0, 0, union.width, union.height);
+					for (DeviceCapture capture : captures)
+					{
+						if (capture.image != null)
+						{
+							graphics.drawImage(capture.image, capture.bounds.x - union.x, capture.bounds.y - union.y, null);
+						}
+					}
+				}
+				finally
+				{
+					graphics.dispose();
+				}
+				this.triggerCallbacks(image);
+			}
+		}
+
+		for (DeviceCapture capture : captures)
+		{
+			capture.image = null;
+		}
+	}
+
+	private static DeviceCapture[] updateCaptures(DeviceCapture[] captures, GraphicsDevice[] devices)
+	{
+		DeviceCapture[] newCaptures = new DeviceCapture[devices.length];
+		for (int i = 0; i < devices.length; i++)
+		{
+			for (DeviceCapture capture : captures)
+			{
+				if (capture.device == devices[i])
+				{
+					newCaptures[i] = capture;
+					break;
+				}
+			}
+			if (newCaptures[i] == null)
+			{
+				newCaptures[i] = new DeviceCapture(devices[i]);
+			}
+		}
+		return newCaptures;
+	}
+
+	private static ExecutorService createExecutor(int threadCount)
+	{
+		return Executors.newFixedThreadPool(threadCount, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private void setDeviceImageSourceActive(boolean active)
+	{
+		synchronized (this)
+		{
+			this.activeDeviceImageSources += active ? 1 : -1;
+		}
+		this.updateRunningStatus();
+	}
+
+	private void updateRunningStatus()
+	{
+		boolean startNow = false;
+		synchronized (this)
+		{
+			boolean shouldRun = this.shouldActivate || this.activeDeviceImageSources > 0;
+			if (shouldRun != this.shouldRun)
+			{
+				this.shouldRun = shouldRun;
+				if (shouldRun)
+				{
+					if (!this.running)
+					{
+						this.running = true;
+						startNow = true;
+					}
+				}
+				else
+				{
+					if (this.running)
+					{
+						this.notifyAll();
+					}
+				}
+			}
+		}
+
+		if (startNow)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					MultiDesktopImageSource.this.run();
+				}
+			});
+			thread.start();
+		}
+	}
+
+	/**
+	 * The capture of a single screen, run by one of the worker threads.
+	 */
+	private static final class DeviceCapture implements Runnable
+	{
+		public final GraphicsDevice device;
+		public Robot robot;
+		public Rectangle bounds;
+		public BufferedImage image;
+
+		public DeviceCapture(GraphicsDevice device)
+		{
+			this.device = device;
+		}
+
+		@Override
+		public void run()
+		{
+			this.image = null;
+			try
+			{
+				if (this.robot == null)
+				{
+					this.robot = new Robot(this.device);
+				}
+				this.bounds = DesktopImageSource.getUnscaledBounds(this.device);
+				this.image = this.robot.createScreenCapture(this.bounds);
+			}
+			catch (AWTException e)
+			{
+				// the screen is skipped until it can be captured again.
+			}
+		}
+	}
+
+	/**
+	 * A source which triggers its callbacks with the captures of a single screen.
+	 */
+	private final class DeviceImageSource extends AbstractImageSource
+	{
+		private boolean active = false;
+
+		@Override
+		public void activate()
+		{
+			boolean changed;
+			synchronized (this)
+			{
+				changed = !this.active;
+				this.active = true;
+			}
+			if (changed)
+			{
+				MultiDesktopImageSource.this.setDeviceImageSourceActive(true);
+			}
+		}
+
+		@Override
+		public void deactivate()
+		{
+			boolean changed;
+			synchronized (this)
+			{
+				changed = this.active;
+				this.active = false;
+			}
+			if (changed)
+			{
+				MultiDesktopImageSource.this.setDeviceImageSourceActive(false);
+			}
+		}
+	}
+}
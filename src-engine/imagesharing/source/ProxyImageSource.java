@@ -26,14 +26,15 @@
 
 package imagesharing.source;
 
-import java.util.ArrayList;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
 public class ProxyImageSource implements ImageSource
 {
-	private ImageSource imageSource = null;
+	private volatile ImageSource imageSource = null;
 	private boolean active = false;
 
-	private final ArrayList<ImageCallback> callbacks = new ArrayList<ImageCallback>();
+	private final ImageCallbackRegistry callbacks = new ImageCallbackRegistry();
 
 	public ImageSource getUnderlyingImageSource()
 	{
@@ -47,27 +48,18 @@ public class ProxyImageSource implements ImageSource
 			ImageSource oldImageSource = this.imageSource;
 			if (oldImageSource != imageSource)
 			{
+				// images delivered by the old source from now on are discarded.
 				this.imageSource = imageSource;
 
 				if (oldImageSource != null)
 				{
 					oldImageSource.deactivate();
-				}
-
-				for (ImageCallback callback : this.callbacks)
-				{
-					if (oldImageSource != null)
-					{
-						oldImageSource.removeImageCallback(callback);
-					}
-					if (imageSource != null)
-					{
-						imageSource.addImageCallback(callback);
-					}
+					oldImageSource.removeImageCallback(new ForwardingImageCallback(oldImageSource));
 				}
 
 				if (imageSource != null)
 				{
+					imageSource.addImageCallback(new ForwardingImageCallback(imageSource));
 					if (this.active)
 					{
 						imageSource.activate();
@@ -110,28 +102,64 @@ public class ProxyImageSource implements ImageSource
 	@Override
 	public void addImageCallback(ImageCallback callback)
 	{
-		synchronized (this)
-		{
-			this.callbacks.add(callback);
-			if (this.imageSource != null)
-			{
-				this.imageSource.addImageCallback(callback);
-			}
-		}
+		this.callbacks.add(callback);
 	}
 
 	@Override
 	public void removeImageCallback(ImageCallback callback)
 	{
-		synchronized (this)
+		this.callbacks.remove(callback);
+	}
+
+	/**
+	 * The single callback registered on the underlying source, which forwards its images to the callbacks of the proxy.
+	 * <p/>
+	 * Forwarders are equal if they forward from the same source, so a new instance can be used to remove the one which has been registered.
+	 */
+	private final class ForwardingImageCallback implements DirtyRegionImageCallback
+	{
+		private final ImageSource imageSource;
+
+		public ForwardingImageCallback(ImageSource imageSource)
 		{
-			if (this.callbacks.remove(callback))
+			this.imageSource = imageSource;
+		}
+
+		@Override
+		public void handleImage(BufferedImage image)
+		{
+			this.handleImage(image, null);
+		}
+
+		@Override
+		public void handleImage(BufferedImage image, Rectangle[] dirtyRegions)
+		{
+			if (ProxyImageSource.this.imageSource == this.imageSource)
 			{
-				if (this.imageSource != null)
-				{
-					this.imageSource.removeImageCallback(callback);
-				}
+				ProxyImageSource.this.callbacks.trigger(image, dirtyRegions);
+			}
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(this.imageSource);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (obj instanceof ForwardingImageCallback)
+			{
+				ForwardingImageCallback other = (ForwardingImageCallback) obj;
+				return other.imageSource == this.imageSource && other.getProxy() == this.getProxy();
 			}
+			return false;
+		}
+
+		private ProxyImageSource getProxy()
+		{
+			return ProxyImageSource.this;
 		}
 	}
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * An agent which plays back a recorded sequence of images and triggers callbacks for each image.
+ * <p/>
+ * The sequence is a directory with one image file per frame, in any format supported by {@link ImageIO}. The name of each file is the time the frame was recorded, in milliseconds, followed by the file extension, such as {@code 1546300800000.png}. Files with other names are ignored.
+ * <p/>
+ * This source does not need a display, so it can be used to measure the performance of the image sharing pipeline on headless machines with realistic screen activity.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class ReplayImageSource extends AbstractImageSource
+{
+	private static final long RETRY_INTERVAL = 1000;
+
+	private final File directory;
+
+	private volatile boolean recordedSpeed = true;
+	private volatile boolean looping = true;
+
+	private volatile boolean shouldActivate = false;
+
+	private volatile boolean shouldRun = false;
+	private volatile boolean running = false;
+
+	public ReplayImageSource(File directory)
+	{
+		if (directory == null)
+		{
+			throw new NullPointerException("The directory must be provided!");
+		}
+		this.directory = directory;
+	}
+
+	@Override
+	public void activate()
+	{
+		this.shouldActivate = true;
+		this.updateRunningStatus();
+	}
+
+	@Override
+	public void deactivate()
+	{
+		this.shouldActivate = false;
+		this.updateRunningStatus();
+	}
+
+	public File getDirectory()
+	{
+		return this.directory;
+	}
+
+	/**
+	 * Checks if the frames are played back at the speed they were recorded.
+	 *
+	 * @return If the frames are played back at the recorded speed, or else as fast as the callbacks handle them.
+	 */
+	public boolean isRecordedSpeed()
+	{
+		return this.recordedSpeed;
+	}
+
+	/**
+	 * Sets if the frames should be played back at the speed they were recorded.
+	 *
+	 * @param value If the frames should be played back at the recorded speed, or else as fast as the callbacks handle them.
+	 */
+	public void setRecordedSpeed(boolean value)
+	{
+		this.recordedSpeed = value;
+	}
+
+	/**
+	 * Checks if the playback starts over once the last frame is reached.
+	 *
+	 * @return If the playback starts over.
+	 */
+	public boolean isLooping()
+	{
+		return this.looping;
+	}
+
+	/**
+	 * Sets if the playback should start over once the last frame is reached.
+	 *
+	 * @param value If the playback should start over.
+	 */
+	public void setLooping(boolean value)
+	{
+		this.looping = value;
+	}
+
+	private void run()
+	{
+		while (true)
+		{
+			// the directory is listed again on each pass, so frames recorded meanwhile are played back as well.
+			Frame[] frames = this.listFrames();
+			if (frames.length == 0)
+			{
+				// the directory may not exist or have frames yet, so it is listed again after a while.
+				if (!this.waitUntil(System.currentTimeMillis() + RETRY_INTERVAL))
+				{
+					break;
+				}
+				continue;
+			}
+
+			long startTimestamp = System.currentTimeMillis();
+			boolean stopped = false;
+			for (Frame frame : frames)
+			{
+				long targetTimestamp = this.recordedSpeed ? startTimestamp + (frame.timestamp - frames[0].timestamp) : 0;
+				if (!this.waitUntil(targetTimestamp))
+				{
+					stopped = true;
+					break;
+				}
+
+				BufferedImage image;
+				try
+				{
+					image = ImageIO.read(frame.file);
+				}
+				catch (IOException e)
+				{
+					image = null;
+				}
+				if (image != null)
+				{
+					this.triggerCallbacks(image);
+				}
+			}
+
+			if (stopped)
+			{
+				break;
+			}
+			if (!this.looping)
+			{
+				this.waitUntil(Long.MAX_VALUE);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Waits until a given time, or until this source is deactivated.
+	 * <p/>
+	 * If this source is deactivated, the thread is marked as no longer running, so the caller must return right away.
+	 *
+	 * @param targetTimestamp The time, in milliseconds.
+	 * @return If the source is still active.
+	 */
+	private boolean waitUntil(long targetTimestamp)
+	{
+		synchronized (this)
+		{
+			boolean continueRunning = this.shouldRun;
+			while (true)
+			{
+				long currentTimestamp = System.currentTimeMillis();
+				if (!continueRunning || currentTimestamp >= targetTimestamp)
+				{
+					break;
+				}
+				try
+				{
+					this.wait(targetTimestamp == Long.MAX_VALUE ? 0 : targetTimestamp - currentTimestamp);
+				}
+				catch (InterruptedException e)
+				{
+				}
+				continueRunning = this.shouldRun;
+			}
+			if (!continueRunning)
+			{
+				this.running = false;
+			}
+			return continueRunning;
+		}
+	}
+
+	private Frame[] listFrames()
+	{
+		File[] files = this.directory.listFiles();
+		if (files == null)
+		{
+			return new Frame[0];
+		}
+
+		ArrayList<Frame> frames = new ArrayList<Frame>(files.length);
+		for (File file : files)
+		{
+			String name = file.getName();
+			int dot = name.indexOf('.');
+			if (dot > 0 && file.isFile())
+			{
+				try
+				{
+					frames.add(new Frame(Long.parseLong(name.substring(0, dot)), file));
+				}
+				catch (NumberFormatException e)
+				{
+				}
+			}
+		}
+
+		Frame[] array = frames.toArray(new Frame[frames.size()]);
+		Arrays.sort(array);
+		return array;
+	}
+
+	private void updateRunningStatus()
+	{
+		boolean startNow = false;
+
+		boolean shouldRun = this.shouldActivate;
+		synchronized (this)
+		{
+			if (shouldRun != this.shouldRun)
+			{
+				this.shouldRun = shouldRun;
+				if (shouldRun)
+				{
+					if (!this.running)
+					{
+						this.running = true;
+						startNow = true;
+					}
+				}
+				else
+				{
+					if (this.running)
+					{
+						this.notifyAll();
+					}
+				}
+			}
+		}
+
+		if (startNow)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ReplayImageSource.this.run();
+				}
+			});
+			thread.start();
+		}
+	}
+
+	/**
+	 * A recorded frame.
+	 */
+	private static final class Frame implements Comparable<Frame>
+	{
+		public final long timestamp;
+		public final File file;
+
+		public Frame(long timestamp, File file)
+		{
+			this.timestamp = timestamp;
+			this.file = file;
+		}
+
+		@Override
+		public int compareTo(Frame other)
+		{
+			return this.timestamp < other.timestamp ? -1 : (this.timestamp > other.timestamp ? 1 : 0);
+		}
+	}
+}
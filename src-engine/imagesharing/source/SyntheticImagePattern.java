@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+/**
+ * The kinds of screen activity a {@link SyntheticImageSource} may simulate.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public enum SyntheticImagePattern
+{
+	/**
+	 * Lines of text scrolling up by one line per frame, like a terminal printing a log.
+	 * <p/>
+	 * Every frame changes the whole image.
+	 */
+	SCROLLING_TEXT,
+
+	/**
+	 * A window moving back and forth over a plain desktop.
+	 * <p/>
+	 * Each frame changes only the area the window has left and the area it now covers.
+	 */
+	MOVING_WINDOW,
+
+	/**
+	 * Random pixels over the whole image, like a full-screen video.
+	 * <p/>
+	 * Every frame changes every tile, which is the worst case for change detection and encoding.
+	 */
+	NOISE,
+
+	/**
+	 * A page of static text with a blinking text cursor.
+	 * <p/>
+	 * Each frame changes only the area of the cursor, which is the best case for change detection.
+	 */
+	CURSOR_BLINK
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.source;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+/**
+ * An agent which generates images simulating some screen activity at a given interval and triggers callbacks for each image.
+ * <p/>
+ * This source does not need a display, so it can be used to measure the performance of the image sharing pipeline on headless machines. The same frames are generated on every run, and the regions which have changed are reported to callbacks which support them.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class SyntheticImageSource extends AbstractImageSource
+{
+	private static final int LINE_HEIGHT = 16;
+	private static final int WINDOW_STEP = 8;
+	private static final String LOREM_IPSUM = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.";
+
+	private volatile long frameInterval = 100;
+	private volatile int width;
+	private volatile int height;
+	private volatile SyntheticImagePattern pattern;
+
+	private final Random random = new Random(0);
+	private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+	private volatile boolean shouldActivate = false;
+
+	private volatile boolean shouldRun = false;
+	private volatile boolean running = false;
+
+	public SyntheticImageSource(int width, int height, SyntheticImagePattern pattern)
+	{
+		this.setSize(width, height);
+		this.setPattern(pattern);
+	}
+
+	@Override
+	public void activate()
+	{
+		this.shouldActivate = true;
+		this.updateRunningStatus();
+	}
+
+	@Override
+	public void deactivate()
+	{
+		this.shouldActivate = false;
+		this.updateRunningStatus();
+	}
+
+	/**
+	 * Gets the interval between frames.
+	 *
+	 * @return The interval, in milliseconds.
+	 */
+	public long getFrameInterval()
+	{
+		return this.frameInterval;
+	}
+
+	/**
+	 * Sets the interval between frames.
+	 *
+	 * @param value The interval, in milliseconds.
+	 */
+	public void setFrameInterval(long value)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException("The frame interval must be positive!");
+		}
+		this.frameInterval = value;
+	}
+
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	public int getHeight()
+	{
+		return this.height;
+	}
+
+	/**
+	 * Sets the size of the generated images.
+	 *
+	 * @param width The image width.
+	 * @param height The image height.
+	 */
+	public void setSize(int width, int height)
+	{
+		if (width <= 0 || height <= 0)
+		{
+			throw new IllegalArgumentException("The image size must be positive!");
+		}
+		synchronized (this)
+		{
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	public SyntheticImagePattern getPattern()
+	{
+		return this.pattern;
+	}
+
+	public void setPattern(SyntheticImagePattern value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("The pattern must be provided!");
+		}
+		this.pattern = value;
+	}
+
+	private void run()
+	{
+		SyntheticImagePattern lastPattern = null;
+		int lastWidth = 0;
+		int lastHeight = 0;
+		long frameNumber = 0;
+
+		long lastTargetTimestamp = 0;
+		while (true)
+		{
+			// wait until the next timestamp.
+			long currentTimestamp;
+			long targetTimestamp;
+			synchronized (this)
+			{
+				boolean continueRunning = this.shouldRun;
+				while (true)
+				{
+					currentTimestamp = System.currentTimeMillis();
+					targetTimestamp = lastTargetTimestamp + this.frameInterval;
+					if (!continueRunning || currentTimestamp >= targetTimestamp)
+					{
+						break;
+					}
+					try
+					{
+						this.wait(targetTimestamp - currentTimestamp);
+					}
+					catch (InterruptedException e)
+					{
+					}
+					continueRunning = this.shouldRun;
+				}
+				if (!continueRunning)
+				{
+					this.running = false;
+					break;
+				}
+
+				// keeps a steady cadence, unless a whole interval has been missed.
+				if (currentTimestamp - targetTimestamp >= this.frameInterval)
+				{
+					lastTargetTimestamp = currentTimestamp;
+				}
+				else
+				{
+					lastTargetTimestamp = targetTimestamp;
+				}
+			}
+
+			int width;
+			int height;
+			synchronized (this)
+			{
+				width = this.width;
+				height = this.height;
+			}
+			SyntheticImagePattern pattern = this.pattern;
+
+			// the changed regions are only known if the previous frame followed the same pattern.
+			boolean continuous = pattern == lastPattern && width == lastWidth && height == lastHeight;
+			if (!continuous)
+			{
+				frameNumber = 0;
+			}
+
+			BufferedImage image = this.borrowImage(width, height);
+			Rectangle[] dirtyRegions = this.render(image, pattern, frameNumber);
+			this.triggerCallbacks(image, continuous ? dirtyRegions : null);
+
+			lastPattern = pattern;
+			lastWidth = width;
+			lastHeight = height;
+			frameNumber++;
+		}
+	}
+
+	/**
+	 * Draws a frame over the whole image.
+	 *
+	 * @param image The image, whose contents are undefined.
+	 * @param pattern The pattern.
+	 * @param frameNumber The number of the frame within the pattern.
+	 * @return The regions which have changed since the previous frame.
+	 */
+	private Rectangle[] render(BufferedImage image, SyntheticImagePattern pattern, long frameNumber)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Rectangle fullImage = new Rectangle(0, 0, width, height);
+
+		if (pattern == SyntheticImagePattern.NOISE)
+		{
+			WritableRaster raster = image.getRaster();
+			int[] scanline = new int[width * raster.getNumBands()];
+			for (int y = 0; y < height; y++)
+			{
+				// each random number provides four samples.
+				int bits = 0;
+				for (int i = 0; i < scanline.length; i++)
+				{
+					if ((i & 3) == 0)
+					{
+						bits = this.random.nextInt();
+					}
+					scanline[i] = (bits >>> (8 * (i & 3))) & 0xFF;
+				}
+				raster.setPixels(0, y, width, 1, scanline);
+			}
+			return new Rectangle[] { fullImage };
+		}
+
+		Graphics2D graphics = image.createGraphics();
+		try
+		{
+			graphics.setFont(this.font);
+			if (pattern == SyntheticImagePattern.SCROLLING_TEXT)
+			{
+				graphics.setColor(Color.BLACK);
+				graphics.fillRect(0, 0, width, height);
+				graphics.setColor(Color.LIGHT_GRAY);
+				for (int line = 0; line * LINE_HEIGHT < height; line++)
+				{
+					graphics.drawString((frameNumber + line) + ": " + LOREM_IPSUM, 4, (line + 1) * LINE_HEIGHT - 4);
+				}
+				return new Rectangle[] { fullImage };
+			}
+			else if (pattern == SyntheticImagePattern.MOVING_WINDOW)
+			{
+				Rectangle previousWindow = getWindowBounds(width, height, frameNumber - 1);
+				Rectangle window = getWindowBounds(width, height, frameNumber);
+
+				graphics.setColor(new Color(0x3A6EA5));
+				graphics.fillRect(0, 0, width, height);
+				graphics.setColor(new Color(0x000080));
+				graphics.fillRect(window.x, window.y, window.width, LINE_HEIGHT);
+				graphics.setColor(Color.WHITE);
+				graphics.drawString("Window", window.x + 4, window.y + LINE_HEIGHT - 4);
+				graphics.setColor(new Color(0xC0C0C0));
+				graphics.fillRect(window.x, window.y + LINE_HEIGHT, window.width, window.height - LINE_HEIGHT);
+				return new Rectangle[] { previousWindow, window };
+			}
+			else
+			{
+				graphics.setColor(Color.WHITE);
+				graphics.fillRect(0, 0, width, height);
+				graphics.setColor(Color.BLACK);
+				int lineCount = 0;
+				for (int line = 0; (line + 2) * LINE_HEIGHT < height; line++)
+				{
+					graphics.drawString(LOREM_IPSUM, 4, (line + 1) * LINE_HEIGHT - 4);
+					lineCount++;
+				}
+				Rectangle cursor = new Rectangle(4, lineCount * LINE_HEIGHT + 2, 2, LINE_HEIGHT - 4).intersection(fullImage);
+				if (frameNumber % 2 == 0)
+				{
+					graphics.fillRect(cursor.x, cursor.y, cursor.width, cursor.height);
+				}
+				return new Rectangle[] { cursor };
+			}
+		}
+		finally
+		{
+			graphics.dispose();
+		}
+	}
+
+	private static Rectangle getWindowBounds(int width, int height, long frameNumber)
+	{
+		int windowWidth = Math.max(1, width / 3);
+		int windowHeight = Math.max(1, height / 3);
+
+		// bounces from one side of the image to the other.
+		long range = Math.max(1, width - windowWidth);
+		long position = (Math.max(0, frameNumber) * WINDOW_STEP) % (2 * range);
+		int x = (int) (position < range ? position : 2 * range - position);
+		return new Rectangle(x, (height - windowHeight) / 2, windowWidth, windowHeight);
+	}
+
+	private void updateRunningStatus()
+	{
+		boolean startNow = false;
+
+		boolean shouldRun = this.shouldActivate;
+		synchronized (this)
+		{
+			if (shouldRun != this.shouldRun)
+			{
+				this.shouldRun = shouldRun;
+				if (shouldRun)
+				{
+					if (!this.running)
+					{
+						this.running = true;
+						startNow = true;
+					}
+				}
+				else
+				{
+					if (this.running)
+					{
+						this.notifyAll();
+					}
+				}
+			}
+		}
+
+		if (startNow)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					SyntheticImageSource.this.run();
+				}
+			});
+			thread.start();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of reusable {@link BufferedImage#TYPE_INT_RGB} images.
+ * <p/>
+ * Image sources borrow images from the pool, draw frames on them and hand them to their consumers, which return them to the pool once they no longer need them. At steady state the same few images are reused over and over, instead of allocating a multi-megabyte image for each frame.
+ * <p/>
+ * The pool only takes back images it has lent, so it is safe to return any image to it: images created elsewhere are simply ignored. Returning an image twice is also harmless.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class ImagePool
+{
+	private final int capacity;
+	private final ArrayList<BufferedImage> idleImages = new ArrayList<BufferedImage>();
+	private final WeakHashMap<BufferedImage, Boolean> lentImages = new WeakHashMap<BufferedImage, Boolean>();
+
+	/**
+	 * Creates a pool which keeps up to four idle images.
+	 */
+	public ImagePool()
+	{
+		this(4);
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param capacity The maximum number of idle images kept by the pool.
+	 */
+	public ImagePool(int capacity)
+	{
+		if (capacity < 0)
+		{
+			throw new IllegalArgumentException("The capacity must not be negative!");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Borrows an image from the pool, creating a new one if there is no idle image with the given dimensions.
+	 * <p/>
+	 * The contents of the image are undefined.
+	 *
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @return The image.
+	 */
+	public BufferedImage borrowImage(int width, int height)
+	{
+		BufferedImage image = null;
+		synchronized (this)
+		{
+			for (int i = this.idleImages.size() - 1; i >= 0; i--)
+			{
+				BufferedImage idleImage = this.idleImages.get(i);
+				if (idleImage.getWidth() == width && idleImage.getHeight() == height)
+				{
+					image = this.idleImages.remove(i);
+					break;
+				}
+			}
+		}
+
+		if (image == null)
+		{
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		synchronized (this)
+		{
+			this.lentImages.put(image, Boolean.TRUE);
+		}
+		return image;
+	}
+
+	/**
+	 * Returns an image to the pool.
+	 * <p/>
+	 * If the image was not lent by this pool, or has already been returned, this method does nothing.
+	 *
+	 * @param image The image or {@code null}.
+	 */
+	public void returnImage(BufferedImage image)
+	{
+		if (image == null)
+		{
+			return;
+		}
+
+		synchronized (this)
+		{
+			if (this.lentImages.remove(image) != null)
+			{
+				// keeps the most recently returned images, since they are the most likely to match the next request.
+				if (this.idleImages.size() >= this.capacity && this.capacity > 0)
+				{
+					this.idleImages.remove(0);
+				}
+				if (this.capacity > 0)
+				{
+					this.idleImages.add(image);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.util;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Calculates 64-bit hashes of rectangular regions of images.
+ * <p/>
+ * The hash follows the structure of xxHash64: the pixels are read as a stream of 64-bit lanes, which are mixed into four independent accumulators. All pixels are read in a single pass.
+ * <p/>
+ * Two regions with the same hash are assumed to have the same pixels. The chance of two different regions having the same hash is negligible for screen sharing purposes.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public final class PixelHash
+{
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	/**
+	 * Calculates the hash of a region of an image, reading its raster directly.
+	 *
+	 * @param raster The raster of the image.
+	 * @param x0 The left edge of the region (inclusive).
+	 * @param y0 The top edge of the region (inclusive).
+	 * @param x1 The right edge of the region (exclusive).
+	 * @param y1 The bottom edge of the region (exclusive).
+	 * @return The hash.
+	 */
+	public static long hash(PixelRaster raster, int x0, int y0, int x1, int y1)
+	{
+		PixelHash hash = new PixelHash();
+		int length = (x1 - x0) * raster.getPixelStride();
+		for (int y = y0; y < y1; y++)
+		{
+			int index = raster.getIndex(x0, y);
+			if (raster.getIntData() != null)
+			{
+				hash.update(raster.getIntData(), index, length);
+			}
+			else
+			{
+				hash.update(raster.getByteData(), index, length);
+			}
+		}
+		return hash.finish();
+	}
+
+	/**
+	 * Calculates the hash of a region of an image, reading its pixels through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+	 * <p/>
+	 * This is slower than {@link #hash(PixelRaster, int, int, int, int)}, but works with any image.
+	 *
+	 * @param image The image.
+	 * @param x0 The left edge of the region (inclusive).
+	 * @param y0 The top edge of the region (inclusive).
+	 * @param x1 The right edge of the region (exclusive).
+	 * @param y1 The bottom edge of the region (exclusive).
+	 * @return The hash.
+	 */
+	public static long hash(BufferedImage image, int x0, int y0, int x1, int y1)
+	{
+		PixelHash hash = new PixelHash();
+		int[] scanline = new int[x1 - x0];
+		for (int y = y0; y < y1; y++)
+		{
+			image.getRGB(x0, y, scanline.length, 1, scanline, 0, scanline.length);
+			hash.update(scanline, 0, scanline.length);
+		}
+		return hash.finish();
+	}
+
+	private long v1 = PRIME1 + PRIME2;
+	private long v2 = PRIME2;
+	private long v3 = 0;
+	private long v4 = -PRIME1;
+
+	private final int[] pending = new int[8];
+	private int pendingCount = 0;
+	private int pendingBytes = 0;
+	private int pendingByteCount = 0;
+	private long totalLength = 0;
+
+	private PixelHash()
+	{
+	}
+
+	private void update(int[] data, int offset, int length)
+	{
+		int end = offset + length;
+
+		// completes a partially filled stripe.
+		while (this.pendingCount > 0 && offset < end)
+		{
+			this.update(data[offset++]);
+		}
+
+		// consumes whole stripes directly from the array.
+		while (end - offset >= 8)
+		{
+			this.v1 = round(this.v1, lane(data[offset], data[offset + 1]));
+			this.v2 = round(this.v2, lane(data[offset + 2], data[offset + 3]));
+			this.v3 = round(this.v3, lane(data[offset + 4], data[offset + 5]));
+			this.v4 = round(this.v4, lane(data[offset + 6], data[offset + 7]));
+			this.totalLength += 32;
+			offset += 8;
+		}
+
+		// keeps the remainder for the next call.
+		while (offset < end)
+		{
+			this.update(data[offset++]);
+		}
+	}
+
+	private void update(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		for (int i = offset; i < end; i++)
+		{
+			this.pendingBytes |= (data[i] & 0xFF) << (8 * this.pendingByteCount);
+			this.pendingByteCount++;
+			if (this.pendingByteCount == 4)
+			{
+				this.update(this.pendingBytes);
+				this.pendingBytes = 0;
+				this.pendingByteCount = 0;
+			}
+		}
+	}
+
+	private void update(int value)
+	{
+		this.pending[this.pendingCount++] = value;
+		if (this.pendingCount == 8)
+		{
+			int[] p = this.pending;
+			this.v1 = round(this.v1, lane(p[0], p[1]));
+			this.v2 = round(this.v2, lane(p[2], p[3]));
+			this.v3 = round(this.v3, lane(p[4], p[5]));
+			this.v4 = round(this.v4, lane(p[6], p[7]));
+			this.totalLength += 32;
+			this.pendingCount = 0;
+		}
+	}
+
+	private long finish()
+	{
+		if (this.pendingByteCount > 0)
+		{
+			this.update(this.pendingBytes);
+			this.pendingBytes = 0;
+			this.pendingByteCount = 0;
+		}
+
+		long h;
+		if (this.totalLength >= 32)
+		{
+			h = Long.rotateLeft(this.v1, 1) + Long.rotateLeft(this.v2, 7) + Long.rotateLeft(this.v3, 12) + Long.rotateLeft(this.v4, 18);
+			h = mergeRound(h, this.v1);
+			h = mergeRound(h, this.v2);
+			h = mergeRound(h, this.v3);
+			h = mergeRound(h, this.v4);
+		}
+		else
+		{
+			h = PRIME5;
+		}
+		h += this.totalLength + 4L * this.pendingCount;
+
+		int i = 0;
+		for (; i + 1 < this.pendingCount; i += 2)
+		{
+			h ^= round(0, lane(this.pending[i], this.pending[i + 1]));
+			h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+		}
+		if (i < this.pendingCount)
+		{
+			h ^= (this.pending[i] & 0xFFFFFFFFL) * PRIME1;
+			h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+		}
+
+		h ^= h >>> 33;
+		h *= PRIME2;
+		h ^= h >>> 29;
+		h *= PRIME3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	private static long lane(int low, int high)
+	{
+		return (low & 0xFFFFFFFFL) | ((long) high << 32);
+	}
+
+	private static long round(long accumulator, long input)
+	{
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long mergeRound(long accumulator, long value)
+	{
+		accumulator ^= round(0, value);
+		return accumulator * PRIME1 + PRIME4;
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A direct view of the array backing the raster of a {@link BufferedImage}.
+ * <p/>
+ * Only images which store all of their samples in a single bank, either as one {@code int} per pixel or as interleaved bytes, can be viewed this way. Reading the backing array directly is much faster than {@link BufferedImage#getRGB(int, int)}, because it skips the color model conversion.
+ * <p/>
+ * Note that getting hold of the backing array prevents Java2D from accelerating the image, so this class should only be used with images which are not drawn to the screen.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public final class PixelRaster
+{
+	/**
+	 * Gets a direct view of the pixels of an image.
+	 * <p/>
+	 * If the image does not have a supported raster layout, this method returns {@code null}.
+	 *
+	 * @param image The image.
+	 * @return The view or {@code null}.
+	 */
+	public static PixelRaster valueOf(BufferedImage image)
+	{
+		int imageType = image.getType();
+		if (imageType == BufferedImage.TYPE_CUSTOM || imageType == BufferedImage.TYPE_BYTE_BINARY || imageType == BufferedImage.TYPE_BYTE_INDEXED)
+		{
+			return null;
+		}
+
+		WritableRaster raster = image.getRaster();
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		if (dataBuffer.getNumBanks() != 1)
+		{
+			return null;
+		}
+
+		if (dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel)
+		{
+			int scanlineStride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+			int offset = dataBuffer.getOffset() - raster.getSampleModelTranslateX() - raster.getSampleModelTranslateY() * scanlineStride;
+			return new PixelRaster(imageType, ((DataBufferInt) dataBuffer).getData(), null, offset, scanlineStride, 1);
+		}
+		else if (dataBuffer instanceof DataBufferByte && sampleModel instanceof ComponentSampleModel)
+		{
+			ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+			int pixelStride = componentSampleModel.getPixelStride();
+
+			// the bytes of each pixel must be contiguous, so a range of pixels is a range of bytes.
+			int[] bandOffsets = componentSampleModel.getBandOffsets();
+			int minBandOffset = Integer.MAX_VALUE;
+			int maxBandOffset = Integer.MIN_VALUE;
+			for (int bandOffset : bandOffsets)
+			{
+				minBandOffset = Math.min(minBandOffset, bandOffset);
+				maxBandOffset = Math.max(maxBandOffset, bandOffset);
+			}
+			if (minBandOffset != 0 || maxBandOffset != pixelStride - 1 || bandOffsets.length != pixelStride)
+			{
+				return null;
+			}
+
+			int scanlineStride = componentSampleModel.getScanlineStride();
+			int offset = dataBuffer.getOffset() - raster.getSampleModelTranslateX() * pixelStride - raster.getSampleModelTranslateY() * scanlineStride;
+			return new PixelRaster(imageType, null, ((DataBufferByte) dataBuffer).getData(), offset, scanlineStride, pixelStride);
+		}
+		return null;
+	}
+
+	private final int imageType;
+	private final int[] intData;
+	private final byte[] byteData;
+	private final int offset;
+	private final int scanlineStride;
+	private final int pixelStride;
+
+	private PixelRaster(int imageType, int[] intData, byte[] byteData, int offset, int scanlineStride, int pixelStride)
+	{
+		this.imageType = imageType;
+		this.intData = intData;
+		this.byteData = byteData;
+		this.offset = offset;
+		this.scanlineStride = scanlineStride;
+		this.pixelStride = pixelStride;
+	}
+
+	/**
+	 * Gets the backing array if the image stores one {@code int} per pixel.
+	 *
+	 * @return The backing array or {@code null}.
+	 */
+	public int[] getIntData()
+	{
+		return this.intData;
+	}
+
+	/**
+	 * Gets the backing array if the image stores interleaved bytes.
+	 *
+	 * @return The backing array or {@code null}.
+	 */
+	public byte[] getByteData()
+	{
+		return this.byteData;
+	}
+
+	/**
+	 * Gets the distance, in array elements, between two vertically adjacent pixels.
+	 *
+	 * @return The scanline stride.
+	 */
+	public int getScanlineStride()
+	{
+		return this.scanlineStride;
+	}
+
+	/**
+	 * Gets the distance, in array elements, between two horizontally adjacent pixels.
+	 *
+	 * @return The pixel stride.
+	 */
+	public int getPixelStride()
+	{
+		return this.pixelStride;
+	}
+
+	/**
+	 * Gets the index of the first array element of a pixel.
+	 *
+	 * @param x The horizontal position of the pixel.
+	 * @param y The vertical position of the pixel.
+	 * @return The index of the first array element of the pixel.
+	 */
+	public int getIndex(int x, int y)
+	{
+		return this.offset + y * this.scanlineStride + x * this.pixelStride;
+	}
+
+	/**
+	 * Checks if the array elements of this view and of another view have the same meaning, so they can be compared directly.
+	 *
+	 * @param other The other view.
+	 * @return If the views can be compared directly.
+	 */
+	public boolean isCompatibleWith(PixelRaster other)
+	{
+		return other != null && other.imageType == this.imageType && (other.intData != null) == (this.intData != null) && other.pixelStride == this.pixelStride;
+	}
+
+	/**
+	 * Checks if a rectangular region has the same pixels on this view and on another, compatible, view.
+	 *
+	 * @param other The other view.
+	 * @param x0 The left edge of the region (inclusive).
+	 * @param y0 The top edge of the region (inclusive).
+	 * @param x1 The right edge of the region (exclusive).
+	 * @param y1 The bottom edge of the region (exclusive).
+	 * @return If all pixels within the region are the same.
+	 */
+	public boolean regionEquals(PixelRaster other, int x0, int y0, int x1, int y1)
+	{
+		int length = (x1 - x0) * this.pixelStride;
+		for (int y = y0; y < y1; y++)
+		{
+			int index0 = this.getIndex(x0, y);
+			int index1 = other.getIndex(x0, y);
+			boolean equal;
+			if (this.intData != null)
+			{
+				equal = rangeEquals(this.intData, index0, other.intData, index1, length);
+			}
+			else
+			{
+				equal = rangeEquals(this.byteData, index0, other.byteData, index1, length);
+			}
+			if (!equal)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean rangeEquals(int[] array0, int index0, int[] array1, int index1, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (array0[index0 + i] != array1[index1 + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean rangeEquals(byte[] array0, int index0, byte[] array1, int index1, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (array0[index0 + i] != array1[index1 + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
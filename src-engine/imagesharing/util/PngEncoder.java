@@ -0,0 +1,691 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.util;
+
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes opaque images as 8-bit RGB PNG files, or as indexed-color PNG files when they have few colors.
+ * <p/>
+ * Unlike {@link javax.imageio.ImageIO}, this encoder reads the pixels straight from an {@code int} array or buffer, and keeps a {@link Deflater} and all of its working buffers for each thread, so encoding many small images, such as tiles, allocates almost nothing but the result.
+ * <p/>
+ * An encoder may be used by several threads at once.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public final class PngEncoder
+{
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int BYTES_PER_PIXEL = 3;
+	private static final int MAX_PALETTE_SIZE = 256;
+
+	private static final int COLOR_TYPE_RGB = 2;
+	private static final int COLOR_TYPE_INDEXED = 3;
+
+	private static final int FILTER_NONE = 0;
+	private static final int FILTER_SUB = 1;
+	private static final int FILTER_UP = 2;
+	private static final int FILTER_AVERAGE = 3;
+	private static final int FILTER_PAETH = 4;
+
+	private static final int COLOR_TABLE_BITS = 10;
+
+	private final int level;
+	private final int strategy;
+	private final PngFilterMode filterMode;
+
+	private final ThreadLocal<EncoderState> states = new ThreadLocal<EncoderState>()
+	{
+		@Override
+		protected EncoderState initialValue()
+		{
+			return new EncoderState(PngEncoder.this.level, PngEncoder.this.strategy);
+		}
+	};
+
+	/**
+	 * Creates an encoder with the default compression level and strategy, which filters the scanlines adaptively.
+	 */
+	public PngEncoder()
+	{
+		this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, PngFilterMode.ADAPTIVE);
+	}
+
+	/**
+	 * Creates an encoder.
+	 *
+	 * @param level The compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @param strategy The compression strategy, such as {@link Deflater#HUFFMAN_ONLY}.
+	 * @param filterMode How the scanlines are filtered.
+	 */
+	public PngEncoder(int level, int strategy, PngFilterMode filterMode)
+	{
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION)
+		{
+			throw new IllegalArgumentException("The compression level is invalid!");
+		}
+		if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY)
+		{
+			throw new IllegalArgumentException("The compression strategy is invalid!");
+		}
+		if (filterMode == null)
+		{
+			throw new NullPointerException("The filter mode must be provided!");
+		}
+		this.level = level;
+		this.strategy = strategy;
+		this.filterMode = filterMode;
+	}
+
+	public int getLevel()
+	{
+		return this.level;
+	}
+
+	public int getStrategy()
+	{
+		return this.strategy;
+	}
+
+	public PngFilterMode getFilterMode()
+	{
+		return this.filterMode;
+	}
+
+	/**
+	 * Encodes a region of pixels stored as {@code int} values, in the layout of {@link BufferedImage#TYPE_INT_RGB}.
+	 *
+	 * @param pixels The pixels. Its position and limit are ignored.
+	 * @param offset The index of the top left pixel of the region.
+	 * @param scanlineStride The distance between two vertically adjacent pixels.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @return The PNG file.
+	 */
+	public byte[] encode(IntBuffer pixels, int offset, int scanlineStride, int width, int height)
+	{
+		EncoderState state = this.begin(width, height);
+		this.writeHeader(state, width, height, 8, COLOR_TYPE_RGB, 0);
+		IntBuffer source = pixels.duplicate();
+		source.clear();
+		for (int y = 0; y < height; y++)
+		{
+			source.position(offset + y * scanlineStride);
+			source.get(state.pixels, 0, width);
+			this.writeRow(state, width);
+		}
+		return this.end(state);
+	}
+
+	/**
+	 * Encodes a whole image. The alpha channel, if any, is discarded.
+	 *
+	 * @param image The image.
+	 * @return The PNG file.
+	 */
+	public byte[] encode(BufferedImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		EncoderState state = this.begin(width, height);
+		this.writeHeader(state, width, height, 8, COLOR_TYPE_RGB, 0);
+
+		// the backing array is read directly if it holds the pixels in the expected layout.
+		int imageType = image.getType();
+		PixelRaster raster = imageType == BufferedImage.TYPE_INT_RGB || imageType == BufferedImage.TYPE_INT_ARGB ? PixelRaster.valueOf(image) : null;
+		for (int y = 0; y < height; y++)
+		{
+			if (raster != null)
+			{
+				System.arraycopy(raster.getIntData(), raster.getIndex(0, y), state.pixels, 0, width);
+			}
+			else
+			{
+				image.getRGB(0, y, width, 1, state.pixels, 0, width);
+			}
+			this.writeRow(state, width);
+		}
+		return this.end(state);
+	}
+
+	/**
+	 * Encodes a region of pixels stored as {@code int} values, in the layout of {@link BufferedImage#TYPE_INT_RGB}, as an indexed-color PNG file.
+	 * <p/>
+	 * The palette has as few bits per pixel as the colors allow. The scanlines are not filtered, whatever the filter mode, since filtering rarely helps indexed-color images. If the region has more than {@value #MAX_PALETTE_SIZE} colors, this method gives up as soon as it finds the extra color and returns {@code null}.
+	 *
+	 * @param pixels The pixels. Its position and limit are ignored.
+	 * @param offset The index of the top left pixel of the region.
+	 * @param scanlineStride The distance between two vertically adjacent pixels.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @return The PNG file or {@code null}.
+	 */
+	public byte[] encodeIndexed(IntBuffer pixels, int offset, int scanlineStride, int width, int height)
+	{
+		EncoderState state = this.begin(width, height);
+		byte[] indices = state.prepareIndices(width * height);
+		IntBuffer source = pixels.duplicate();
+		source.clear();
+
+		// the palette is built first, since its size determines the number of bits per pixel.
+		int paletteSize = 0;
+		int[] palette = state.palette;
+		int[] colorKeys = state.colorKeys;
+		byte[] colorIndices = state.colorIndices;
+		Arrays.fill(colorKeys, 0);
+		int lastColor = -1;
+		byte lastIndex = 0;
+		for (int y = 0, i = 0; y < height; y++)
+		{
+			source.position(offset + y * scanlineStride);
+			source.get(state.pixels, 0, width);
+			for (int x = 0; x < width; x++, i++)
+			{
+				// the key of a color has an extra bit, so a key of zero marks an empty slot of the table.
+				int key = (state.pixels[x] & 0xFFFFFF) | 0x1000000;
+				if (key != lastColor)
+				{
+					int slot = (key * 0x9E3779B1) >>> (32 - COLOR_TABLE_BITS);
+					while (colorKeys[slot] != 0 && colorKeys[slot] != key)
+					{
+						slot = (slot + 1) & (colorKeys.length - 1);
+					}
+					if (colorKeys[slot] == 0)
+					{
+						if (paletteSize == MAX_PALETTE_SIZE)
+						{
+							return null;
+						}
+						colorKeys[slot] = key;
+						colorIndices[slot] = (byte) paletteSize;
+						palette[paletteSize++] = key;
+					}
+					lastColor = key;
+					lastIndex = colorIndices[slot];
+				}
+				indices[i] = lastIndex;
+			}
+		}
+
+		int bitDepth = paletteSize <= 2 ? 1 : paletteSize <= 4 ? 2 : paletteSize <= 16 ? 4 : 8;
+		this.writeHeader(state, width, height, bitDepth, COLOR_TYPE_INDEXED, paletteSize);
+
+		// the indices are packed from the most significant bits of each byte, as PNG requires.
+		int length = (width * bitDepth + 7) / 8;
+		int pixelsPerByte = 8 / bitDepth;
+		byte[] row = state.filteredRows[0];
+		row[BYTES_PER_PIXEL - 1] = (byte) FILTER_NONE;
+		for (int y = 0, i = 0; y < height; y++)
+		{
+			if (bitDepth == 8)
+			{
+				System.arraycopy(indices, i, row, BYTES_PER_PIXEL, width);
+				i += width;
+			}
+			else
+			{
+				Arrays.fill(row, BYTES_PER_PIXEL, BYTES_PER_PIXEL + length, (byte) 0);
+				for (int x = 0; x < width; x++, i++)
+				{
+					int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+					row[BYTES_PER_PIXEL + x / pixelsPerByte] |= indices[i] << shift;
+				}
+			}
+			state.write(row, BYTES_PER_PIXEL - 1, length + 1);
+		}
+		return this.end(state);
+	}
+
+	private EncoderState begin(int width, int height)
+	{
+		if (width <= 0 || height <= 0)
+		{
+			throw new IllegalArgumentException("The image size must be positive!");
+		}
+
+		EncoderState state = this.states.get();
+		state.prepare(width);
+		state.deflater.reset();
+		return state;
+	}
+
+	/**
+	 * Writes everything that comes before the compressed scanlines.
+	 *
+	 * @param state The working buffers.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param bitDepth The number of bits per sample or, for indexed-color images, per pixel.
+	 * @param colorType The PNG color type.
+	 * @param paletteSize The number of colors of the palette of an indexed-color image.
+	 */
+	private void writeHeader(EncoderState state, int width, int height, int bitDepth, int colorType, int paletteSize)
+	{
+		// the signature and the header.
+		state.output.write(SIGNATURE, 0, SIGNATURE.length);
+		int chunkStart = state.output.beginChunk("IHDR");
+		state.output.writeInt(width);
+		state.output.writeInt(height);
+		state.output.write(bitDepth);
+		state.output.write(colorType);
+		state.output.write(0);
+		state.output.write(0);
+		state.output.write(0);
+		state.output.endChunk(chunkStart, state.crc);
+
+		// the palette, if any.
+		if (colorType == COLOR_TYPE_INDEXED)
+		{
+			chunkStart = state.output.beginChunk("PLTE");
+			for (int i = 0; i < paletteSize; i++)
+			{
+				int color = state.palette[i];
+				state.output.write(color >>> 16);
+				state.output.write(color >>> 8);
+				state.output.write(color);
+			}
+			state.output.endChunk(chunkStart, state.crc);
+		}
+
+		// the compressed scanlines follow, in a single data chunk.
+		state.dataChunkStart = state.output.beginChunk("IDAT");
+	}
+
+	private void writeRow(EncoderState state, int width)
+	{
+		int length = width * BYTES_PER_PIXEL;
+		byte[] current = state.currentRow;
+		int[] pixels = state.pixels;
+		for (int x = 0, i = BYTES_PER_PIXEL; x < width; x++, i += BYTES_PER_PIXEL)
+		{
+			int pixel = pixels[x];
+			current[i] = (byte) (pixel >>> 16);
+			current[i + 1] = (byte) (pixel >>> 8);
+			current[i + 2] = (byte) pixel;
+		}
+
+		byte[] filtered;
+		switch (this.filterMode)
+		{
+			case NONE:
+				filtered = state.filteredRows[0];
+				filter(FILTER_NONE, current, state.previousRow, filtered, length, -1);
+				break;
+			case SUB:
+				filtered = state.filteredRows[0];
+				filter(FILTER_SUB, current, state.previousRow, filtered, length, -1);
+				break;
+			case UP:
+				filtered = state.filteredRows[0];
+				filter(FILTER_UP, current, state.previousRow, filtered, length, -1);
+				break;
+			case AVERAGE:
+				filtered = state.filteredRows[0];
+				filter(FILTER_AVERAGE, current, state.previousRow, filtered, length, -1);
+				break;
+			case PAETH:
+				filtered = state.filteredRows[0];
+				filter(FILTER_PAETH, current, state.previousRow, filtered, length, -1);
+				break;
+			default:
+				// a filter is abandoned as soon as it is clearly worse than the best one so far.
+				filtered = null;
+				long bestSum = Long.MAX_VALUE;
+				for (int filterType = FILTER_NONE; filterType <= FILTER_PAETH; filterType++)
+				{
+					byte[] candidate = state.filteredRows[filterType];
+					long sum = filter(filterType, current, state.previousRow, candidate, length, bestSum);
+					if (sum < bestSum)
+					{
+						bestSum = sum;
+						filtered = candidate;
+					}
+				}
+				break;
+		}
+		state.write(filtered, BYTES_PER_PIXEL - 1, length + 1);
+
+		// the current scanline is the previous one of the next scanline.
+		state.currentRow = state.previousRow;
+		state.previousRow = current;
+	}
+
+	private byte[] end(EncoderState state)
+	{
+		state.finishDeflating();
+		state.output.endChunk(state.dataChunkStart, state.crc);
+		int chunkStart = state.output.beginChunk("IEND");
+		state.output.endChunk(chunkStart, state.crc);
+		return state.output.toByteArray();
+	}
+
+	/**
+	 * Filters a scanline. The rows have {@value #BYTES_PER_PIXEL} leading zero bytes, so the pixel to the left of the first one can be read as zero.
+	 * <p/>
+	 * The sum of the absolute values of the filtered bytes may be calculated along, in which case the filtering stops once the sum reaches a limit.
+	 *
+	 * @param filterType The PNG filter type.
+	 * @param current The scanline.
+	 * @param previous The previous scanline, which is all zeros for the first scanline.
+	 * @param filtered The array which receives the filter type, followed by the filtered bytes.
+	 * @param length The number of bytes in the scanline.
+	 * @param sumLimit The limit of the sum, or a negative value if the sum should not be calculated.
+	 * @return The sum, which is not accurate if it has reached the limit, or zero if it was not calculated.
+	 */
+	private static long filter(int filterType, byte[] current, byte[] previous, byte[] filtered, int length, long sumLimit)
+	{
+		int start = BYTES_PER_PIXEL;
+		int end = start + length;
+		filtered[start - 1] = (byte) filterType;
+		if (filterType == FILTER_NONE)
+		{
+			System.arraycopy(current, start, filtered, start, length);
+			if (sumLimit < 0)
+			{
+				return 0;
+			}
+		}
+
+		// the sum is checked against the limit once per chunk of bytes.
+		long sum = 0;
+		for (int chunkStart = start; chunkStart < end; chunkStart += 256)
+		{
+			int chunkEnd = Math.min(end, chunkStart + 256);
+			switch (filterType)
+			{
+				case FILTER_NONE:
+					break;
+				case FILTER_SUB:
+					for (int i = chunkStart; i < chunkEnd; i++)
+					{
+						filtered[i] = (byte) (current[i] - current[i - BYTES_PER_PIXEL]);
+					}
+					break;
+				case FILTER_UP:
+					for (int i = chunkStart; i < chunkEnd; i++)
+					{
+						filtered[i] = (byte) (current[i] - previous[i]);
+					}
+					break;
+				case FILTER_AVERAGE:
+					for (int i = chunkStart; i < chunkEnd; i++)
+					{
+						filtered[i] = (byte) (current[i] - (((current[i - BYTES_PER_PIXEL] & 0xFF) + (previous[i] & 0xFF)) >>> 1));
+					}
+					break;
+				default:
+					for (int i = chunkStart; i < chunkEnd; i++)
+					{
+						int left = current[i - BYTES_PER_PIXEL] & 0xFF;
+						int above = previous[i] & 0xFF;
+						int aboveLeft = previous[i - BYTES_PER_PIXEL] & 0xFF;
+						int distanceLeft = Math.abs(above - aboveLeft);
+						int distanceAbove = Math.abs(left - aboveLeft);
+						int distanceAboveLeft = Math.abs(left + above - aboveLeft - aboveLeft);
+						int predictor;
+						if (distanceLeft <= distanceAbove && distanceLeft <= distanceAboveLeft)
+						{
+							predictor = left;
+						}
+						else if (distanceAbove <= distanceAboveLeft)
+						{
+							predictor = above;
+						}
+						else
+						{
+							predictor = aboveLeft;
+						}
+						filtered[i] = (byte) (current[i] - predictor);
+					}
+					break;
+			}
+			if (sumLimit >= 0)
+			{
+				for (int i = chunkStart; i < chunkEnd; i++)
+				{
+					int value = filtered[i];
+					sum += value < 0 ? -value : value;
+				}
+				if (sum >= sumLimit)
+				{
+					return sum;
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * The working buffers of a thread.
+	 */
+	private static final class EncoderState
+	{
+		public final Deflater deflater;
+		public final CRC32 crc = new CRC32();
+		public final OutputBuffer output = new OutputBuffer();
+
+		public int[] pixels = new int[0];
+		public final byte[] pending = new byte[32768];
+		public int pendingLength = 0;
+		public byte[] currentRow = new byte[0];
+		public byte[] previousRow = new byte[0];
+		public final byte[][] filteredRows = new byte[FILTER_PAETH + 1][];
+		public int dataChunkStart;
+
+		public byte[] indices = new byte[0];
+		public final int[] palette = new int[MAX_PALETTE_SIZE];
+		public final int[] colorKeys = new int[1 << COLOR_TABLE_BITS];
+		public final byte[] colorIndices = new byte[1 << COLOR_TABLE_BITS];
+
+		public EncoderState(int level, int strategy)
+		{
+			this.deflater = new Deflater(level);
+			this.deflater.setStrategy(strategy);
+		}
+
+		public void prepare(int width)
+		{
+			int rowLength = BYTES_PER_PIXEL + width * BYTES_PER_PIXEL;
+			if (this.pixels.length < width)
+			{
+				this.pixels = new int[width];
+			}
+			if (this.currentRow.length < rowLength)
+			{
+				this.currentRow = new byte[rowLength];
+				this.previousRow = new byte[rowLength];
+				for (int i = 0; i < this.filteredRows.length; i++)
+				{
+					this.filteredRows[i] = new byte[rowLength];
+				}
+			}
+
+			// the scanline above the first one is all zeros.
+			Arrays.fill(this.currentRow, (byte) 0);
+			Arrays.fill(this.previousRow, (byte) 0);
+			this.pendingLength = 0;
+			this.output.reset();
+		}
+
+		public byte[] prepareIndices(int pixelCount)
+		{
+			if (this.indices.length < pixelCount)
+			{
+				this.indices = new byte[pixelCount];
+			}
+			return this.indices;
+		}
+
+		private void flush()
+		{
+			if (this.pendingLength > 0)
+			{
+				this.deflate(this.pending, 0, this.pendingLength);
+				this.pendingLength = 0;
+			}
+		}
+
+		private void deflate(byte[] data, int offset, int length)
+		{
+			this.deflater.setInput(data, offset, length);
+			while (!this.deflater.needsInput())
+			{
+				this.output.deflate(this.deflater);
+			}
+		}
+
+		/**
+		 * Writes filtered bytes. They are handed to the deflater in large batches, since each call to it has a fixed cost.
+		 *
+		 * @param data The bytes.
+		 * @param offset The index of the first byte.
+		 * @param length The number of bytes.
+		 */
+		public void write(byte[] data, int offset, int length)
+		{
+			if (this.pendingLength + length > this.pending.length)
+			{
+				this.flush();
+			}
+			if (length > this.pending.length)
+			{
+				this.deflate(data, offset, length);
+			}
+			else
+			{
+				System.arraycopy(data, offset, this.pending, this.pendingLength, length);
+				this.pendingLength += length;
+			}
+		}
+
+		public void finishDeflating()
+		{
+			this.flush();
+			this.deflater.finish();
+			while (!this.deflater.finished())
+			{
+				this.output.deflate(this.deflater);
+			}
+		}
+	}
+
+	/**
+	 * A growable byte buffer which knows how to write PNG chunks.
+	 */
+	private static final class OutputBuffer
+	{
+		private byte[] data = new byte[8192];
+		private int size = 0;
+
+		public void reset()
+		{
+			this.size = 0;
+		}
+
+		public void write(int value)
+		{
+			this.ensureCapacity(1);
+			this.data[this.size++] = (byte) value;
+		}
+
+		public void write(byte[] bytes, int offset, int length)
+		{
+			this.ensureCapacity(length);
+			System.arraycopy(bytes, offset, this.data, this.size, length);
+			this.size += length;
+		}
+
+		public void writeInt(int value)
+		{
+			this.ensureCapacity(4);
+			this.putInt(this.size, value);
+			this.size += 4;
+		}
+
+		public void deflate(Deflater deflater)
+		{
+			this.ensureCapacity(4096);
+			this.size += deflater.deflate(this.data, this.size, this.data.length - this.size);
+		}
+
+		/**
+		 * Starts a chunk, leaving room for its length.
+		 *
+		 * @param type The chunk type.
+		 * @return The position of the chunk.
+		 */
+		public int beginChunk(String type)
+		{
+			int chunkStart = this.size;
+			this.writeInt(0);
+			for (int i = 0; i < 4; i++)
+			{
+				this.write(type.charAt(i));
+			}
+			return chunkStart;
+		}
+
+		/**
+		 * Ends a chunk, filling in its length and appending its checksum.
+		 *
+		 * @param chunkStart The position of the chunk.
+		 * @param crc The checksum calculator.
+		 */
+		public void endChunk(int chunkStart, CRC32 crc)
+		{
+			this.putInt(chunkStart, this.size - chunkStart - 8);
+			crc.reset();
+			crc.update(this.data, chunkStart + 4, this.size - chunkStart - 4);
+			this.writeInt((int) crc.getValue());
+		}
+
+		public byte[] toByteArray()
+		{
+			return Arrays.copyOf(this.data, this.size);
+		}
+
+		private void putInt(int position, int value)
+		{
+			this.data[position] = (byte) (value >>> 24);
+			this.data[position + 1] = (byte) (value >>> 16);
+			this.data[position + 2] = (byte) (value >>> 8);
+			this.data[position + 3] = (byte) value;
+		}
+
+		private void ensureCapacity(int length)
+		{
+			if (this.size + length > this.data.length)
+			{
+				this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.size + length));
+			}
+		}
+	}
+}
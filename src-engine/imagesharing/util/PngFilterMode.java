@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.util;
+
+/**
+ * The ways a {@link PngEncoder} may filter the scanlines of an image before compressing them.
+ * <p/>
+ * Filtering replaces each byte by its difference to some neighboring byte, which makes smooth areas compress better.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public enum PngFilterMode
+{
+	/**
+	 * The scanlines are not filtered. This is the fastest mode, but usually compresses worst.
+	 */
+	NONE,
+
+	/**
+	 * Each byte is replaced by its difference to the same byte of the pixel to its left.
+	 */
+	SUB,
+
+	/**
+	 * Each byte is replaced by its difference to the same byte of the pixel above it.
+	 */
+	UP,
+
+	/**
+	 * Each byte is replaced by its difference to the average of the pixel to its left and the pixel above it.
+	 */
+	AVERAGE,
+
+	/**
+	 * Each byte is replaced by its difference to whichever of the pixels to its left, above it or above and to its left best predicts it.
+	 */
+	PAETH,
+
+	/**
+	 * Each scanline is filtered with all filters, and the one whose bytes have the smallest sum of absolute values is kept.
+	 * <p/>
+	 * This is the heuristic recommended by the PNG specification, and usually compresses best, at the cost of filtering each scanline five times.
+	 */
+	ADAPTIVE
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.server;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+import imagesharing.util.PngEncoder;
+
+/**
+ * Picks the codec of each tile from its contents.
+ * <p/>
+ * Tiles with 256 colors or fewer, which are most tiles of windows, menus and text, are encoded as indexed-color PNG files. The remaining tiles are told apart by how their neighboring pixels differ: in photos and videos most neighbors differ slightly and irregularly, so those tiles are encoded as JPEG files, while tiles with many regular neighbors or many sharp edges, such as text over a gradient, are encoded as lossless PNG files, since JPEG would blur them and PNG filters predict gradients well.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class AutoTileCodec implements TileCodec
+{
+	/**
+	 * The largest difference, in any channel, between two neighboring pixels which is still considered a smooth transition.
+	 */
+	private static final int SMOOTH_DIFFERENCE = 48;
+
+	private final PngEncoder encoder;
+	private final PngTileCodec losslessCodec;
+	private final JpegTileCodec lossyCodec;
+
+	/**
+	 * Creates a codec.
+	 *
+	 * @param encoder The encoder of the PNG files.
+	 * @param jpegQuality The quality of the JPEG files, from 0 to 1.
+	 */
+	public AutoTileCodec(PngEncoder encoder, float jpegQuality)
+	{
+		if (encoder == null)
+		{
+			throw new NullPointerException("The encoder must be provided!");
+		}
+		this.encoder = encoder;
+		this.losslessCodec = new PngTileCodec(encoder);
+		this.lossyCodec = new JpegTileCodec(jpegQuality);
+	}
+
+	public PngEncoder getEncoder()
+	{
+		return this.encoder;
+	}
+
+	public float getJpegQuality()
+	{
+		return this.lossyCodec.getQuality();
+	}
+
+	@Override
+	public EncodedTile encode(IntBuffer pixels, int offset, int scanlineStride, int width, int height) throws IOException
+	{
+		// the encoder gives up as soon as it finds too many colors, so trying it is cheap.
+		byte[] indexed = this.encoder.encodeIndexed(pixels, offset, scanlineStride, width, height);
+		if (indexed != null)
+		{
+			return new EncodedTile("image/png", indexed);
+		}
+		if (isPhotographic(pixels, offset, scanlineStride, width, height))
+		{
+			return this.lossyCodec.encode(pixels, offset, scanlineStride, width, height);
+		}
+		return this.losslessCodec.encode(pixels, offset, scanlineStride, width, height);
+	}
+
+	/**
+	 * Checks if a region looks like a photo, comparing each pixel with its left and upper neighbors.
+	 * <p/>
+	 * A pair of neighbors is regular if they are identical or if the pixel continues the gradient of the two pixels before it. A region looks like a photo if fewer than half of the pairs are regular and fewer than a tenth of them are separated by a sharp edge.
+	 *
+	 * @param pixels The pixels.
+	 * @param offset The index of the top left pixel of the region.
+	 * @param scanlineStride The distance between two vertically adjacent pixels.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @return If the region looks like a photo.
+	 */
+	private static boolean isPhotographic(IntBuffer pixels, int offset, int scanlineStride, int width, int height)
+	{
+		long comparisons = 0;
+		long regular = 0;
+		long edges = 0;
+		for (int y = 0; y < height; y++)
+		{
+			int index = offset + y * scanlineStride;
+			for (int x = 0; x < width; x++, index++)
+			{
+				int pixel = pixels.get(index);
+				if (x > 0)
+				{
+					int neighbor = pixels.get(index - 1);
+					int difference = difference(pixel, neighbor);
+					comparisons++;
+					if (difference == 0 || (x > 1 && continuesGradient(pixel, neighbor, pixels.get(index - 2))))
+					{
+						regular++;
+					}
+					else if (difference > SMOOTH_DIFFERENCE)
+					{
+						edges++;
+					}
+				}
+				if (y > 0)
+				{
+					int neighbor = pixels.get(index - scanlineStride);
+					int difference = difference(pixel, neighbor);
+					comparisons++;
+					if (difference == 0 || (y > 1 && continuesGradient(pixel, neighbor, pixels.get(index - 2 * scanlineStride))))
+					{
+						regular++;
+					}
+					else if (difference > SMOOTH_DIFFERENCE)
+					{
+						edges++;
+					}
+				}
+			}
+		}
+		return regular * 2 < comparisons && edges * 10 < comparisons;
+	}
+
+	private static int difference(int pixel0, int pixel1)
+	{
+		int red = Math.abs(((pixel0 >>> 16) & 0xFF) - ((pixel1 >>> 16) & 0xFF));
+		int green = Math.abs(((pixel0 >>> 8) & 0xFF) - ((pixel1 >>> 8) & 0xFF));
+		int blue = Math.abs((pixel0 & 0xFF) - (pixel1 & 0xFF));
+		return Math.max(red, Math.max(green, blue));
+	}
+
+	private static boolean continuesGradient(int pixel, int neighbor, int farNeighbor)
+	{
+		for (int shift = 0; shift < 24; shift += 8)
+		{
+			int sample = (pixel >>> shift) & 0xFF;
+			int neighborSample = (neighbor >>> shift) & 0xFF;
+			int farNeighborSample = (farNeighbor >>> shift) & 0xFF;
+			if (sample - neighborSample != neighborSample - farNeighborSample)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
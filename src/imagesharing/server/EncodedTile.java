@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.server;
+
+/**
+ * A tile encoded by a {@link TileCodec}, along with the MIME type the browser needs to decode it.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public final class EncodedTile
+{
+	private final String mimeType;
+	private final byte[] data;
+
+	public EncodedTile(String mimeType, byte[] data)
+	{
+		if (mimeType == null)
+		{
+			throw new NullPointerException("The MIME type must be provided!");
+		}
+		if (data == null)
+		{
+			throw new NullPointerException("The data must be provided!");
+		}
+		this.mimeType = mimeType;
+		this.data = data;
+	}
+
+	public String getMimeType()
+	{
+		return this.mimeType;
+	}
+
+	/**
+	 * Gets the encoded tile. The array must not be changed.
+	 *
+	 * @return The encoded tile.
+	 */
+	public byte[] getData()
+	{
+		return this.data;
+	}
+}
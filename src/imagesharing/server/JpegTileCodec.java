@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.server;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes tiles as lossy JPEG files, which are much smaller than PNG files for photos and videos.
+ * <p/>
+ * Each thread keeps its own writer and buffers, since the writers of {@link ImageIO} cannot be shared.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class JpegTileCodec implements TileCodec
+{
+	private final float quality;
+
+	private final ThreadLocal<WriterState> states = new ThreadLocal<WriterState>()
+	{
+		@Override
+		protected WriterState initialValue()
+		{
+			return new WriterState(JpegTileCodec.this.quality);
+		}
+	};
+
+	/**
+	 * Creates a codec.
+	 *
+	 * @param quality The quality, from 0 (smallest files) to 1 (best images).
+	 */
+	public JpegTileCodec(float quality)
+	{
+		if (!(quality >= 0 && quality <= 1))
+		{
+			throw new IllegalArgumentException("The quality must be between 0 and 1!");
+		}
+		this.quality = quality;
+	}
+
+	public float getQuality()
+	{
+		return this.quality;
+	}
+
+	@Override
+	public EncodedTile encode(IntBuffer pixels, int offset, int scanlineStride, int width, int height) throws IOException
+	{
+		WriterState state = this.states.get();
+		BufferedImage image = state.prepareImage(width, height);
+
+		// the pixels are copied straight into the backing array of the image.
+		int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		IntBuffer source = pixels.duplicate();
+		source.clear();
+		for (int y = 0; y < height; y++)
+		{
+			source.position(offset + y * scanlineStride);
+			source.get(data, y * width, width);
+		}
+
+		state.output.reset();
+		ImageOutputStream out = new MemoryCacheImageOutputStream(state.output);
+		try
+		{
+			state.writer.setOutput(out);
+			state.writer.write(null, new IIOImage(image, null, null), state.param);
+		}
+		finally
+		{
+			state.writer.setOutput(null);
+			out.close();
+		}
+		return new EncodedTile("image/jpeg", state.output.toByteArray());
+	}
+
+	/**
+	 * The writer and the buffers of a thread.
+	 */
+	private static final class WriterState
+	{
+		public final ImageWriter writer;
+		public final ImageWriteParam param;
+		public final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private BufferedImage image;
+
+		public WriterState(float quality)
+		{
+			Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+			if (!writers.hasNext())
+			{
+				throw new UnsupportedOperationException("There is no JPEG writer!");
+			}
+			this.writer = writers.next();
+			this.param = this.writer.getDefaultWriteParam();
+			this.param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			this.param.setCompressionQuality(quality);
+		}
+
+		public BufferedImage prepareImage(int width, int height)
+		{
+			// most tiles have the same size, so the image is rarely replaced.
+			if (this.image == null || this.image.getWidth() != width || this.image.getHeight() != height)
+			{
+				this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			}
+			return this.image;
+		}
+	}
+}
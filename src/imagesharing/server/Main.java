@@ -27,12 +27,23 @@
 package imagesharing.server;
 
 import imagesharing.controller.BufferedImageSharingController;
+import imagesharing.controller.FrameStorageMode;
+import imagesharing.controller.UpdateSchedulingMode;
+import imagesharing.recording.SessionRecorder;
+import imagesharing.source.CursorListener;
+import imagesharing.source.CursorPosition;
+import imagesharing.source.DesktopImageSource;
+import imagesharing.util.ImagePool;
+
+import java.io.File;
+import java.io.IOException;
 
 public class Main
 {
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
 		BufferedImageSharingController controller = null;
+		SessionRecorder recorder = null;
 		ScreenSharingServerUI ui = null;
 
 		boolean ok = false;
@@ -40,14 +51,52 @@ public class Main
 		{
 			// start the screen sharing controller.
 			controller = new BufferedImageSharingController();
+			controller.setUpdateSchedulingMode(UpdateSchedulingMode.EVENT_DRIVEN);
+			controller.setImagePool(new ImagePool());
+			controller.setFrameStorageMode(FrameStorageMode.DIRECT);
 			controller.start();
 
+			// record the session, if a file was given.
+			if (args.length > 0)
+			{
+				recorder = new SessionRecorder(new File(args[0]), new File(args[0] + ".idx"));
+				recorder.start();
+				controller.addImageUpdateListener(recorder);
+			}
+
 			// start the screen sharing UI.
 			ui = new ScreenSharingServerUI(controller);
 			ui.activate();
 
 			// start the screen sharing server.
-			SingleScreenSharingServer server = new SingleScreenSharingServer(controller);
+			final SingleScreenSharingServer server = new SingleScreenSharingServer(controller);
+			final ScreenSharingServerUI finalUI = ui;
+
+			// the changed tiles are encoded before the viewers are told about them.
+			controller.addImageUpdateListener(new TilePreEncoder(server));
+			server.addViewerCountListener(new ViewerCountListener()
+			{
+				@Override
+				public void viewerCountChanged(int viewerCount)
+				{
+					// there is no point in capturing the screen while no one is watching.
+					DesktopImageSource desktopImageSource = finalUI.getDesktopImageSource();
+					if (desktopImageSource != null)
+					{
+						desktopImageSource.setViewersPresent(viewerCount > 0);
+					}
+				}
+			});
+
+			// the mouse pointer is sent to the viewers apart from the screen.
+			ui.getDesktopImageSource().addCursorListener(new CursorListener()
+			{
+				@Override
+				public void cursorMoved(CursorPosition position)
+				{
+					server.setCursorPosition(position);
+				}
+			});
 			ok = server.start();
 		}
 		finally
@@ -58,6 +107,10 @@ public class Main
 				{
 					controller.stop();
 				}
+				if (recorder != null)
+				{
+					recorder.stop();
+				}
 				if (ui != null)
 				{
 					ui.deactivate();
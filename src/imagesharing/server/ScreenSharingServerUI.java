@@ -26,11 +26,14 @@
 
 package imagesharing.server;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 import imagesharing.controller.BufferedImageSharingController;
+import imagesharing.controller.ImageUpdate;
+import imagesharing.controller.ImageUpdateListener;
 import imagesharing.source.DesktopImageSource;
-import imagesharing.source.ImageCallback;
+import imagesharing.source.DirtyRegionImageCallback;
 import imagesharing.source.ImageSource;
 import imagesharing.source.ProxyImageSource;
 
@@ -40,23 +43,44 @@ public class ScreenSharingServerUI
 	private ProxyImageSource imageSource;
 
 	private boolean enabled = false;
-	private ImageSource chosenImageSource;
+	private volatile ImageSource chosenImageSource;
 
-	private DesktopImageSource desktopImageSource;
+	private volatile DesktopImageSource desktopImageSource;
 
 	public ScreenSharingServerUI(BufferedImageSharingController controller)
 	{
 		this.controller = controller;
 		this.imageSource = new ProxyImageSource();
-		this.imageSource.addImageCallback(new ImageCallback()
+		this.imageSource.addImageCallback(new DirtyRegionImageCallback()
 		{
 			@Override
 			public void handleImage(BufferedImage image)
 			{
 				controller.setImage(image);
 			}
+
+			@Override
+			public void handleImage(BufferedImage image, Rectangle[] dirtyRegions)
+			{
+				controller.setImage(image, dirtyRegions);
+			}
 		});
 		this.desktopImageSource = new DesktopImageSource();
+		this.desktopImageSource.setImagePool(controller.getImagePool());
+
+		// lets the desktop capture slow down while the screen is not changing.
+		controller.addImageUpdateListener(new ImageUpdateListener()
+		{
+			@Override
+			public void imageUpdated(ImageUpdate update)
+			{
+				DesktopImageSource desktopImageSource = ScreenSharingServerUI.this.desktopImageSource;
+				if (desktopImageSource != null && desktopImageSource == ScreenSharingServerUI.this.chosenImageSource)
+				{
+					desktopImageSource.reportChanges(update.getChangedTiles().size(), update.getTileCount());
+				}
+			}
+		});
 
 		ServerControlWindow window = new ServerControlWindow();
 		window.setUI(this);
@@ -32,6 +32,7 @@ import java.awt.GraphicsEnvironment;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
@@ -46,7 +47,9 @@ import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
+import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.WindowConstants;
 import javax.swing.border.EmptyBorder;
@@ -59,6 +62,7 @@ public class ServerControlWindow extends JFrame
 
 	private JComboBox comboScreen;
 	private JComboBox comboDesktopName;
+	private JTextField textDesktopRegions;
 
 	public ServerControlWindow()
 	{
@@ -139,9 +143,9 @@ public class ServerControlWindow extends JFrame
 		tabbedPane.addTab("Desktop", null, panelDesktop, null);
 		GridBagLayout gbl_panelDesktop = new GridBagLayout();
 		gbl_panelDesktop.columnWidths = new int[] { 0, 0, 0 };
-		gbl_panelDesktop.rowHeights = new int[] { 0, 0, 0 };
+		gbl_panelDesktop.rowHeights = new int[] { 0, 0, 0, 0, 0 };
 		gbl_panelDesktop.columnWeights = new double[] { 0.0, 1.0, Double.MIN_VALUE };
-		gbl_panelDesktop.rowWeights = new double[] { 0.0, 0.0, Double.MIN_VALUE };
+		gbl_panelDesktop.rowWeights = new double[] { 0.0, 0.0, 0.0, 0.0, Double.MIN_VALUE };
 		panelDesktop.setLayout(gbl_panelDesktop);
 
 		JLabel labelDesktopName = new JLabel("Nome da tela");
@@ -186,11 +190,44 @@ public class ServerControlWindow extends JFrame
 		});
 		GridBagConstraints gbc_buttonRefreshDesktopList = new GridBagConstraints();
 		gbc_buttonRefreshDesktopList.gridwidth = 2;
-		gbc_buttonRefreshDesktopList.insets = new Insets(0, 0, 0, 5);
+		gbc_buttonRefreshDesktopList.insets = new Insets(0, 0, 5, 5);
 		gbc_buttonRefreshDesktopList.gridx = 0;
 		gbc_buttonRefreshDesktopList.gridy = 1;
 		panelDesktop.add(buttonRefreshDesktopList, gbc_buttonRefreshDesktopList);
 
+		JLabel labelDesktopRegions = new JLabel("Regiões (x, y, largura, altura; ...)");
+		GridBagConstraints gbc_labelDesktopRegions = new GridBagConstraints();
+		gbc_labelDesktopRegions.insets = new Insets(0, 0, 5, 5);
+		gbc_labelDesktopRegions.anchor = GridBagConstraints.EAST;
+		gbc_labelDesktopRegions.gridx = 0;
+		gbc_labelDesktopRegions.gridy = 2;
+		panelDesktop.add(labelDesktopRegions, gbc_labelDesktopRegions);
+
+		this.textDesktopRegions = new JTextField();
+		this.textDesktopRegions.setToolTipText("Deixe em branco para compartilhar a tela inteira.");
+		GridBagConstraints gbc_textDesktopRegions = new GridBagConstraints();
+		gbc_textDesktopRegions.insets = new Insets(0, 0, 5, 0);
+		gbc_textDesktopRegions.fill = GridBagConstraints.HORIZONTAL;
+		gbc_textDesktopRegions.gridx = 1;
+		gbc_textDesktopRegions.gridy = 2;
+		panelDesktop.add(this.textDesktopRegions, gbc_textDesktopRegions);
+
+		JButton buttonApplyDesktopRegions = new JButton("Aplicar regiões");
+		buttonApplyDesktopRegions.addActionListener(new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e)
+			{
+				ServerControlWindow.this.applyDesktopRegions();
+			}
+		});
+		GridBagConstraints gbc_buttonApplyDesktopRegions = new GridBagConstraints();
+		gbc_buttonApplyDesktopRegions.gridwidth = 2;
+		gbc_buttonApplyDesktopRegions.insets = new Insets(0, 0, 0, 5);
+		gbc_buttonApplyDesktopRegions.gridx = 0;
+		gbc_buttonApplyDesktopRegions.gridy = 3;
+		panelDesktop.add(buttonApplyDesktopRegions, gbc_buttonApplyDesktopRegions);
+
 		this.setSize(500, 500);
 
 		this.updateDevices();
@@ -206,6 +243,57 @@ public class ServerControlWindow extends JFrame
 		this.ui.getDesktopImageSource().setSourceDevice(item.getDevice());
 	}
 
+	protected void applyDesktopRegions()
+	{
+		Rectangle[] regions;
+		try
+		{
+			regions = parseRegions(this.textDesktopRegions.getText());
+		}
+		catch (IllegalArgumentException e)
+		{
+			JOptionPane.showMessageDialog(this, "As regiões devem ser informadas como \"x, y, largura, altura\", separadas por ponto e vírgula.", "Regiões inválidas", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		this.ui.getDesktopImageSource().setCaptureRegions(regions);
+	}
+
+	/**
+	 * Parses a list of regions such as {@code "0, 0, 800, 600; 800, 0, 400, 300"}.
+	 *
+	 * @param text The text.
+	 * @return The regions, or {@code null} if the text is blank.
+	 * @throws IllegalArgumentException If the text is not a valid list of regions.
+	 */
+	private static Rectangle[] parseRegions(String text)
+	{
+		if (text.trim().isEmpty())
+		{
+			return null;
+		}
+
+		ArrayList<Rectangle> regions = new ArrayList<Rectangle>();
+		for (String regionText : text.split(";"))
+		{
+			if (regionText.trim().isEmpty())
+			{
+				continue;
+			}
+			String[] parts = regionText.split(",");
+			if (parts.length != 4)
+			{
+				throw new IllegalArgumentException("A region must have four numbers!");
+			}
+			Rectangle region = new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+			if (region.isEmpty())
+			{
+				throw new IllegalArgumentException("A region must not be empty!");
+			}
+			regions.add(region);
+		}
+		return regions.isEmpty() ? null : regions.toArray(new Rectangle[regions.size()]);
+	}
+
 	protected void updateDevices()
 	{
 		GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
@@ -26,15 +26,24 @@
 
 package imagesharing.server;
 
-import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-
-import javax.imageio.ImageIO;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.Deflater;
 
 import org.nikkii.embedhttp.HttpServer;
 import org.nikkii.embedhttp.handler.HttpRequestHandler;
@@ -51,30 +60,156 @@ import imagesharing.controller.ImageIdentifier;
 import imagesharing.controller.SingleImageSharingController;
 import imagesharing.controller.TileImage;
 import imagesharing.controller.TilePosition;
+import imagesharing.source.CursorPosition;
+import imagesharing.util.ByteBufferInputStream;
 import imagesharing.util.JSON;
+import imagesharing.util.PngEncoder;
+import imagesharing.util.PngFilterMode;
 
 public class SingleScreenSharingServer
 {
+	private static final long VIEWER_TIMEOUT = 10000;
+	private static final long CURSOR_POLL_TIMEOUT = 5000;
+	private static final int MAX_CURSOR_WAITERS = 8;
+	private static final int MAX_CACHED_LAYOUTS = 2;
+
 	private SingleImageSharingController controller;
+	private volatile TileCodec tileCodec = new AutoTileCodec(new PngEncoder(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY, PngFilterMode.UP), 0.75f);
+
+	private final HashMap<String, Long> viewers = new HashMap<String, Long>();
+	private final ArrayList<ViewerCountListener> viewerCountListeners = new ArrayList<ViewerCountListener>();
+	private int reportedViewerCount = -1;
+
+	private final Object cursorLock = new Object();
+	private CursorPosition cursorPosition = CursorPosition.HIDDEN;
+	private long cursorSequence = 0;
+	private int cursorWaiters = 0;
+
+	private final LinkedHashMap<ImageIdentifier, HashMap<TilePosition, CachedTileImage>> caches = new LinkedHashMap<ImageIdentifier, HashMap<TilePosition, CachedTileImage>>();
+
+	/**
+	 * A direct buffer holding an encoded tile, which counts the viewers still reading it.
+	 */
+	private static final class TileBuffer
+	{
+		public final ByteBuffer data;
+		private int readers = 0;
+
+		public TileBuffer(int capacity)
+		{
+			this.data = ByteBuffer.allocateDirect(capacity);
+		}
 
-	private ImageIdentifier cachedScreenIdentifier;
-	private HashMap<TilePosition, CachedTileImage> cache = new HashMap<TilePosition, CachedTileImage>();
+		public synchronized boolean isRead()
+		{
+			return this.readers > 0;
+		}
 
+		public synchronized void acquire()
+		{
+			this.readers++;
+		}
+
+		public synchronized void release()
+		{
+			this.readers--;
+		}
+	}
+
+	/**
+	 * An encoded tile, kept in a direct buffer so the cache does not grow the Java heap.
+	 * <p/>
+	 * Each tile has two buffers, which are written in turns, so a version of the tile can be written while a viewer is still reading the previous one.
+	 */
 	private static class CachedTileImage
 	{
 		public long tileTimestamp;
-		public String base64Image;
+		private String mimeType;
+		private TileBuffer buffer;
+		private TileBuffer spareBuffer;
 
-		public CachedTileImage(long timestamp, String base64)
+		public CachedTileImage(long timestamp, EncodedTile encodedTile)
 		{
-			this.tileTimestamp = timestamp;
-			this.base64Image = base64;
+			this.update(timestamp, encodedTile);
 		}
 
-		public void update(long timestamp, String base64)
+		public void update(long timestamp, EncodedTile encodedTile)
 		{
+			// direct buffers are expensive to allocate, so one is only allocated if both buffers are too small or still being read.
+			byte[] bytes = encodedTile.getData();
+			TileBuffer buffer = this.buffer;
+			if (buffer == null || buffer.isRead() || buffer.data.capacity() < bytes.length)
+			{
+				TileBuffer spareBuffer = this.spareBuffer;
+				if (spareBuffer == null || spareBuffer.isRead() || spareBuffer.data.capacity() < bytes.length)
+				{
+					spareBuffer = new TileBuffer(bytes.length);
+				}
+				this.spareBuffer = buffer;
+				this.buffer = spareBuffer;
+				buffer = spareBuffer;
+			}
+			buffer.data.clear();
+			buffer.data.put(bytes);
+			buffer.data.flip();
+			this.mimeType = encodedTile.getMimeType();
 			this.tileTimestamp = timestamp;
-			this.base64Image = base64;
+		}
+
+		public EncodedTile getEncodedTile()
+		{
+			byte[] bytes = new byte[this.buffer.data.remaining()];
+			this.buffer.data.duplicate().get(bytes);
+			return new EncodedTile(this.mimeType, bytes);
+		}
+
+		public SharedTileImage share()
+		{
+			this.buffer.acquire();
+			return new SharedTileImage(this.mimeType, new SharedTileInputStream(this.buffer), this.buffer.data.remaining());
+		}
+	}
+
+	/**
+	 * A stream which reads an encoded tile straight from the buffer of the cache, and lets the buffer be reused once it is closed.
+	 */
+	private static final class SharedTileInputStream extends ByteBufferInputStream
+	{
+		private TileBuffer buffer;
+
+		public SharedTileInputStream(TileBuffer buffer)
+		{
+			super(buffer.data);
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void close()
+		{
+			if (this.buffer != null)
+			{
+				this.buffer.release();
+				this.buffer = null;
+			}
+		}
+	}
+
+	/**
+	 * An encoded tile which is written to a viewer straight from the buffer of the cache.
+	 * <p/>
+	 * The stream must be closed, which the HTTP server does once the response is sent, or the buffer is never reused.
+	 */
+	private static final class SharedTileImage
+	{
+		public final String mimeType;
+		public final InputStream data;
+		public final int length;
+
+		public SharedTileImage(String mimeType, InputStream data, int length)
+		{
+			this.mimeType = mimeType;
+			this.data = data;
+			this.length = length;
 		}
 	}
 
@@ -83,6 +218,85 @@ public class SingleScreenSharingServer
 		this.controller = controller;
 	}
 
+	public void addViewerCountListener(ViewerCountListener listener)
+	{
+		synchronized (this.viewerCountListeners)
+		{
+			this.viewerCountListeners.add(listener);
+		}
+	}
+
+	public void removeViewerCountListener(ViewerCountListener listener)
+	{
+		synchronized (this.viewerCountListeners)
+		{
+			this.viewerCountListeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Gets the codec of the tiles sent to the viewers.
+	 *
+	 * @return The codec.
+	 */
+	public TileCodec getTileCodec()
+	{
+		return this.tileCodec;
+	}
+
+	/**
+	 * Sets the codec of the tiles sent to the viewers. By default, the codec of each tile is picked from its contents, and PNG files are compressed as fast as possible, as they are usually small.
+	 * <p/>
+	 * The tiles which are already encoded are kept until they change.
+	 *
+	 * @param value The codec.
+	 */
+	public void setTileCodec(TileCodec value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("The tile codec must be provided!");
+		}
+		this.tileCodec = value;
+	}
+
+	/**
+	 * Gets the number of viewers which have made a request recently.
+	 *
+	 * @return The number of viewers.
+	 */
+	public int getViewerCount()
+	{
+		synchronized (this.viewers)
+		{
+			return this.viewers.size();
+		}
+	}
+
+	/**
+	 * Sets the position of the mouse pointer, which the viewers draw over the shared image.
+	 * <p/>
+	 * The pointer is sent to the viewers apart from the image, so moving it does not change any tile.
+	 *
+	 * @param position The position, in pixels of the shared image.
+	 */
+	public void setCursorPosition(CursorPosition position)
+	{
+		if (position == null)
+		{
+			throw new NullPointerException("The cursor position must be provided!");
+		}
+		synchronized (this.cursorLock)
+		{
+			if (!position.equals(this.cursorPosition))
+			{
+				this.cursorPosition = position;
+				this.cursorSequence++;
+				this.cursorLock.notifyAll();
+			}
+		}
+	}
+
 	public boolean start()
 	{
 		// instancia o servidor HTTP.
@@ -103,6 +317,17 @@ public class SingleScreenSharingServer
 			server.bind(7666);
 			server.start();
 			okay = true;
+
+			// forgets the viewers which have stopped making requests.
+			Timer viewerTimer = new Timer(true);
+			viewerTimer.schedule(new TimerTask()
+			{
+				@Override
+				public void run()
+				{
+					SingleScreenSharingServer.this.expireViewers();
+				}
+			}, VIEWER_TIMEOUT, 1000);
 		}
 		catch (Exception e)
 		{
@@ -134,9 +359,15 @@ public class SingleScreenSharingServer
 			{
 				return this.handleStaticRequest("jquery.js", "application/javascript; charset=utf-8");
 			}
+			else if (request.getUri().equals("/tile"))
+			{
+				// the viewer is not registered here, since images cannot send its identifier. the page keeps itself registered through its other requests.
+				return this.handleGetTileDataRequest(request.getGetData());
+			}
 		}
 		else if (request.getMethod() == HttpMethod.POST)
 		{
+			this.registerViewer(request);
 			if (request.getUri().equals("/ajax/getInformation"))
 			{
 				return this.handleGetInformationRequest(request.getData());
@@ -145,28 +376,93 @@ public class SingleScreenSharingServer
 			{
 				return this.handleGetTileImageRequest(request.getData());
 			}
+			else if (request.getUri().equals("/ajax/getTiles"))
+			{
+				return this.handleGetTilesRequest(request.getData());
+			}
 			else if (request.getUri().equals("/ajax/getDelta"))
 			{
 				return this.handleGetDeltaRequest(request.getData());
 			}
+			else if (request.getUri().equals("/ajax/getCursor"))
+			{
+				return this.handleGetCursorRequest(request.getData());
+			}
 		}
 		return null;
 	}
 
-	private HttpResponse handleGetInformationRequest(String jsonPayloadOfRequest)
+	/**
+	 * Records that a viewer has made a request.
+	 * <p/>
+	 * The page identifies each viewer with a header. Older pages, which do not send it, are told apart by their address.
+	 *
+	 * @param request The request.
+	 */
+	private void registerViewer(HttpRequest request)
 	{
-		try
+		String viewerId = request.getHeader("X-Viewer-Id");
+		if (viewerId == null && request.getSession() != null && request.getSession().getRemoteAddress() != null)
+		{
+			viewerId = request.getSession().getRemoteAddress().getAddress().getHostAddress();
+		}
+		if (viewerId == null)
 		{
-			ImageDescription imageDescription;
-			synchronized (this)
+			return;
+		}
+
+		boolean newViewer;
+		synchronized (this.viewers)
+		{
+			newViewer = this.viewers.put(viewerId, Long.valueOf(System.currentTimeMillis())) == null;
+		}
+		if (newViewer)
+		{
+			this.notifyViewerCountListeners();
+		}
+	}
+
+	private void expireViewers()
+	{
+		long now = System.currentTimeMillis();
+		synchronized (this.viewers)
+		{
+			Iterator<Long> iterator = this.viewers.values().iterator();
+			while (iterator.hasNext())
 			{
-				imageDescription = this.controller.getImageDescription();
-				if (!Objects.equals(imageDescription != null ? imageDescription.imageIdentifier : null, this.cachedScreenIdentifier))
+				if (now - iterator.next().longValue() > VIEWER_TIMEOUT)
 				{
-					this.cachedScreenIdentifier = imageDescription.imageIdentifier;
-					this.cache.clear();
+					iterator.remove();
 				}
 			}
+		}
+		this.notifyViewerCountListeners();
+	}
+
+	private void notifyViewerCountListeners()
+	{
+		synchronized (this.viewerCountListeners)
+		{
+			int viewerCount = this.getViewerCount();
+			if (viewerCount == this.reportedViewerCount)
+			{
+				return;
+			}
+			this.reportedViewerCount = viewerCount;
+
+			// the listeners are called while holding the lock, so they never see the counts out of order.
+			for (ViewerCountListener listener : this.viewerCountListeners)
+			{
+				listener.viewerCountChanged(viewerCount);
+			}
+		}
+	}
+
+	private HttpResponse handleGetInformationRequest(String jsonPayloadOfRequest)
+	{
+		try
+		{
+			ImageDescription imageDescription = this.controller.getImageDescription();
 			if (imageDescription != null)
 			{
 				StringBuilder jsonPayloadOfResponse = new StringBuilder();
@@ -215,35 +511,18 @@ public class SingleScreenSharingServer
 
 			TilePosition tilePosition = TilePosition.valueOf(tileX, tileY);
 
-			TileImage genericInformation;
-			String imageBase64;
-			synchronized (this)
+			ImageIdentifier imageIdentifier = ImageIdentifier.valueOf(imageId);
+			TileImage genericInformation = this.controller.getTileImage(imageIdentifier, tilePosition);
+			EncodedTile encodedTile = null;
+			if (genericInformation != null)
 			{
-				genericInformation = this.controller.getTileImage(ImageIdentifier.valueOf(imageId), tilePosition);
-				if (genericInformation != null)
-				{
-					CachedTileImage cachedImage = this.cache.get(tilePosition);
-					if (cachedImage != null && cachedImage.tileTimestamp == genericInformation.getInstant())
-					{
-						imageBase64 = cachedImage.base64Image;
-					}
-					else
-					{
-						imageBase64 = this.encodeBase64Image(genericInformation.image.getSubimage(genericInformation.x0, genericInformation.y0, genericInformation.x1 - genericInformation.x0, genericInformation.y1 - genericInformation.y0));
-						if (cachedImage != null)
-						{
-							cachedImage.update(genericInformation.getInstant(), imageBase64);
-						}
-						else
-						{
-							cachedImage = new CachedTileImage(genericInformation.getInstant(), imageBase64);
-							this.cache.put(tilePosition, cachedImage);
-						}
-					}
-				}
-				else
+				encodedTile = this.getCachedTileImage(imageIdentifier, tilePosition, genericInformation.getInstant());
+
+				// the tile is usually encoded beforehand. otherwise it is encoded here, without holding the cache lock.
+				if (encodedTile == null)
 				{
-					imageBase64 = null;
+					encodedTile = this.encodeTile(genericInformation);
+					this.cacheTileImage(imageIdentifier, tilePosition, genericInformation.getInstant(), encodedTile);
 				}
 			}
 			if (genericInformation != null)
@@ -262,7 +541,9 @@ public class SingleScreenSharingServer
 				jsonPayloadOfResponse.append(',');
 				jsonPayloadOfResponse.append("\"tile_timestamp\":").append(this.stringifyTimestamp(genericInformation.getInstant()));
 				jsonPayloadOfResponse.append(',');
-				jsonPayloadOfResponse.append("\"image\":\"").append(imageBase64).append('"');
+				jsonPayloadOfResponse.append("\"mime_type\":\"").append(encodedTile.getMimeType()).append('"');
+				jsonPayloadOfResponse.append(',');
+				jsonPayloadOfResponse.append("\"image\":\"").append(Base64.encodeToString(encodedTile.getData(), false)).append('"');
 				jsonPayloadOfResponse.append('}');
 
 				byte[] bytes = jsonPayloadOfResponse.toString().getBytes("UTF-8");
@@ -289,6 +570,206 @@ public class SingleScreenSharingServer
 		return response;
 	}
 
+	/**
+	 * Sends a tile as the encoded image itself, so the page can load it straight into an image.
+	 * <p/>
+	 * The position and the timestamp of the tile are sent as headers. If the tile is in the cache, it is written out straight from the buffer of the cache. If the screen layout has changed, the response is a 404 error.
+	 *
+	 * @param parameters The parameters of the URL, which are the image identifier and the position of the tile.
+	 * @return The response.
+	 */
+	private HttpResponse handleGetTileDataRequest(Map<String, Object> parameters)
+	{
+		try
+		{
+			String imageId = (String) parameters.get("image_id");
+			int tileX = Integer.parseInt((String) parameters.get("tile_x"));
+			int tileY = Integer.parseInt((String) parameters.get("tile_y"));
+
+			TilePosition tilePosition = TilePosition.valueOf(tileX, tileY);
+
+			ImageIdentifier imageIdentifier = ImageIdentifier.valueOf(imageId);
+			TileImage genericInformation = this.controller.getTileImage(imageIdentifier, tilePosition);
+			if (genericInformation == null)
+			{
+				HttpResponse response = new HttpResponse(HttpStatus.NOT_FOUND, "SCREEN_LAYOUT_CHANGED".getBytes("UTF-8"));
+				response.addHeader("Cache-Control", "no-store");
+				return response;
+			}
+
+			HttpResponse response;
+			SharedTileImage sharedTile = this.getSharedTileImage(imageIdentifier, tilePosition, genericInformation.getInstant());
+			if (sharedTile != null)
+			{
+				response = new HttpResponse(HttpStatus.OK, sharedTile.data, sharedTile.length);
+				response.addHeader("Content-Type", sharedTile.mimeType);
+			}
+			else
+			{
+				// the tile is usually encoded beforehand. otherwise it is encoded here, without holding the cache lock.
+				EncodedTile encodedTile = this.encodeTile(genericInformation);
+				this.cacheTileImage(imageIdentifier, tilePosition, genericInformation.getInstant(), encodedTile);
+				response = new HttpResponse(HttpStatus.OK, encodedTile.getData());
+				response.addHeader("Content-Type", encodedTile.getMimeType());
+			}
+			response.addHeader("Cache-Control", "no-store");
+			response.addHeader("X-Tile-X0", Integer.toString(genericInformation.x0));
+			response.addHeader("X-Tile-Y0", Integer.toString(genericInformation.y0));
+			response.addHeader("X-Tile-X1", Integer.toString(genericInformation.x1));
+			response.addHeader("X-Tile-Y1", Integer.toString(genericInformation.y1));
+			response.addHeader("X-Tile-Timestamp", this.stringifyTimestamp(genericInformation.getInstant()));
+			return response;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+
+		HttpResponse response = new HttpResponse(HttpStatus.INTERNAL_SERVER_ERROR, "ERROR!".getBytes());
+		return response;
+	}
+
+	/**
+	 * Sends many tiles in a single response, so the page does not pay a round trip for each tile.
+	 * <p/>
+	 * The page either lists the tiles it wants, as {@code tiles}, or asks for all tiles which have changed since an instant, as {@code tile_timestamp}. The response is binary, with all numbers in big-endian order:
+	 * <ul>
+	 * <li>the timestamp to ask for the next changes, as a double, which is the most recent timestamp of the sent tiles when they are listed;</li>
+	 * <li>the number of tiles, as an int;</li>
+	 * <li>for each tile, its horizontal and vertical position, as ints, its timestamp, as a double, the length of the MIME type, as a byte, followed by the MIME type in ASCII, and the length of the encoded tile, as an int, followed by the encoded tile.</li>
+	 * </ul>
+	 * If the screen layout has changed, the response is a 404 error. The cached tiles are written out straight from the buffers of the cache.
+	 *
+	 * @param jsonData The request payload.
+	 * @return The response.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private HttpResponse handleGetTilesRequest(String jsonData)
+	{
+		try
+		{
+			Map<String, Object> payload = (Map<String, Object>) JSON.parse(jsonData);
+
+			String imageId = ((String) payload.get("image_id"));
+			ImageIdentifier imageIdentifier = ImageIdentifier.valueOf(imageId);
+
+			List<TilePosition> tilePositions;
+			long nextTileTimestamp;
+			boolean listed = payload.get("tiles") != null;
+			if (listed)
+			{
+				List<Object> tiles = (List<Object>) payload.get("tiles");
+				tilePositions = new ArrayList<TilePosition>(tiles.size());
+				for (Object tile : tiles)
+				{
+					Map<String, Object> position = (Map<String, Object>) tile;
+					tilePositions.add(TilePosition.valueOf(((Number) position.get("x")).intValue(), ((Number) position.get("y")).intValue()));
+				}
+				nextTileTimestamp = 0;
+			}
+			else
+			{
+				long timestamp = this.parseTimestamp(payload.get("tile_timestamp"));
+				ImageChangesReport changesReport = this.controller.generateImageChangesReport(imageIdentifier, timestamp);
+				if (changesReport == null)
+				{
+					return new HttpResponse(HttpStatus.NOT_FOUND, "SCREEN_LAYOUT_CHANGED".getBytes("UTF-8"));
+				}
+				tilePositions = changesReport.getChangedTiles();
+				nextTileTimestamp = changesReport.getMaxTileTimestamp();
+			}
+
+			// the response is made of the headers of the tiles interleaved with the encoded tiles themselves, so nothing is copied.
+			ArrayList<InputStream> parts = new ArrayList<InputStream>(tilePositions.size() * 2 + 1);
+			long length = 0;
+			ByteArrayOutputStream tileHeaderBuffer = new ByteArrayOutputStream();
+			DataOutputStream tileHeader = new DataOutputStream(tileHeaderBuffer);
+			try
+			{
+				parts.add(null);
+				for (TilePosition tilePosition : tilePositions)
+				{
+					TileImage genericInformation = this.controller.getTileImage(imageIdentifier, tilePosition);
+					if (genericInformation == null)
+					{
+						return new HttpResponse(HttpStatus.NOT_FOUND, "SCREEN_LAYOUT_CHANGED".getBytes("UTF-8"));
+					}
+
+					String mimeType;
+					InputStream data;
+					int dataLength;
+					SharedTileImage sharedTile = this.getSharedTileImage(imageIdentifier, tilePosition, genericInformation.getInstant());
+					if (sharedTile != null)
+					{
+						mimeType = sharedTile.mimeType;
+						data = sharedTile.data;
+						dataLength = sharedTile.length;
+					}
+					else
+					{
+						// the tile is usually encoded beforehand. otherwise it is encoded here, without holding the cache lock.
+						EncodedTile encodedTile = this.encodeTile(genericInformation);
+						this.cacheTileImage(imageIdentifier, tilePosition, genericInformation.getInstant(), encodedTile);
+						mimeType = encodedTile.getMimeType();
+						data = new ByteArrayInputStream(encodedTile.getData());
+						dataLength = encodedTile.getData().length;
+					}
+
+					byte[] mimeTypeBytes = mimeType.getBytes(StandardCharsets.US_ASCII);
+					tileHeaderBuffer.reset();
+					tileHeader.writeInt(tilePosition.getX());
+					tileHeader.writeInt(tilePosition.getY());
+					tileHeader.writeDouble(genericInformation.getInstant());
+					tileHeader.writeByte(mimeTypeBytes.length);
+					tileHeader.write(mimeTypeBytes);
+					tileHeader.writeInt(dataLength);
+					parts.add(new ByteArrayInputStream(tileHeaderBuffer.toByteArray()));
+					parts.add(data);
+					length += tileHeaderBuffer.size() + dataLength;
+
+					if (listed)
+					{
+						nextTileTimestamp = Math.max(nextTileTimestamp, genericInformation.getInstant());
+					}
+				}
+
+				// the header of the response comes first, but is only known once all tiles are found.
+				tileHeaderBuffer.reset();
+				tileHeader.writeDouble(nextTileTimestamp);
+				tileHeader.writeInt(tilePositions.size());
+				parts.set(0, new ByteArrayInputStream(tileHeaderBuffer.toByteArray()));
+				length += tileHeaderBuffer.size();
+
+				HttpResponse response = new HttpResponse(HttpStatus.OK, new SequenceInputStream(Collections.enumeration(parts)), length);
+				parts = null;
+				response.addHeader("Content-Type", "application/octet-stream");
+				response.addHeader("Cache-Control", "no-store");
+				return response;
+			}
+			finally
+			{
+				// the encoded tiles already taken from the cache are released if no response is sent.
+				if (parts != null)
+				{
+					for (InputStream part : parts)
+					{
+						if (part != null)
+						{
+							part.close();
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+
+		HttpResponse response = new HttpResponse(HttpStatus.INTERNAL_SERVER_ERROR, "ERROR!".getBytes());
+		return response;
+	}
+
 	@SuppressWarnings( "unchecked" )
 	private HttpResponse handleGetDeltaRequest(String jsonData)
 	{
@@ -352,13 +833,186 @@ public class SingleScreenSharingServer
 		return response;
 	}
 
-	private String encodeBase64Image(BufferedImage image) throws IOException
+	/**
+	 * Answers with the position of the mouse pointer as soon as it differs from the one the viewer already has, or after a while if it does not move.
+	 * <p/>
+	 * Each waiting request holds a thread of the HTTP server, so only a few requests wait at a time. The others are answered at once, and the page asks again a little later.
+	 *
+	 * @param jsonData The request payload.
+	 * @return The response.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private HttpResponse handleGetCursorRequest(String jsonData)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try
+		{
+			Map<String, Object> payload = (Map<String, Object>) JSON.parse(jsonData);
 
-		ImageIO.write(image, "png", out);
+			long knownSequence = ((Number) payload.get("cursor_sequence")).longValue();
 
-		return Base64.encodeToString(out.toByteArray(), false);
+			CursorPosition position;
+			long sequence;
+			synchronized (this.cursorLock)
+			{
+				if (this.cursorSequence == knownSequence && this.cursorWaiters < MAX_CURSOR_WAITERS)
+				{
+					this.cursorWaiters++;
+					try
+					{
+						long timeoutTimestamp = System.currentTimeMillis() + CURSOR_POLL_TIMEOUT;
+						long currentTimestamp = System.currentTimeMillis();
+						while (this.cursorSequence == knownSequence && currentTimestamp < timeoutTimestamp)
+						{
+							try
+							{
+								this.cursorLock.wait(timeoutTimestamp - currentTimestamp);
+							}
+							catch (InterruptedException e)
+							{
+							}
+							currentTimestamp = System.currentTimeMillis();
+						}
+					}
+					finally
+					{
+						this.cursorWaiters--;
+					}
+				}
+				position = this.cursorPosition;
+				sequence = this.cursorSequence;
+			}
+
+			StringBuilder jsonPayloadOfResponse = new StringBuilder();
+			jsonPayloadOfResponse.append('{');
+			jsonPayloadOfResponse.append("\"type\":\"SUCCESS\"");
+			jsonPayloadOfResponse.append(',');
+			jsonPayloadOfResponse.append("\"cursor_sequence\":").append(sequence);
+			jsonPayloadOfResponse.append(',');
+			jsonPayloadOfResponse.append("\"visible\":").append(position.visible);
+			jsonPayloadOfResponse.append(',');
+			jsonPayloadOfResponse.append("\"x\":").append(position.x);
+			jsonPayloadOfResponse.append(',');
+			jsonPayloadOfResponse.append("\"y\":").append(position.y);
+			jsonPayloadOfResponse.append('}');
+
+			byte[] bytes = jsonPayloadOfResponse.toString().getBytes("UTF-8");
+
+			HttpResponse response = new HttpResponse(HttpStatus.OK, bytes);
+			response.addHeader("Content-Type", "application/json; charset=utf-8");
+			return response;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+
+		HttpResponse response = new HttpResponse(HttpStatus.INTERNAL_SERVER_ERROR, "ERROR!".getBytes());
+		return response;
+	}
+
+	/**
+	 * Gets an encoded tile from the cache.
+	 *
+	 * @param imageIdentifier The image identifier.
+	 * @param tilePosition The tile position.
+	 * @param tileTimestamp The time the tile was last updated.
+	 * @return The encoded tile, or {@code null} if that version of the tile is not in the cache.
+	 */
+	private EncodedTile getCachedTileImage(ImageIdentifier imageIdentifier, TilePosition tilePosition, long tileTimestamp)
+	{
+		synchronized (this)
+		{
+			HashMap<TilePosition, CachedTileImage> cache = this.caches.get(imageIdentifier);
+			if (cache == null)
+			{
+				return null;
+			}
+			CachedTileImage cachedImage = cache.get(tilePosition);
+			if (cachedImage != null && cachedImage.tileTimestamp == tileTimestamp)
+			{
+				return cachedImage.getEncodedTile();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Gets an encoded tile from the cache, without copying it.
+	 * <p/>
+	 * The buffer of the cache is not reused for later versions of the tile until the stream of the returned tile is closed, so it can be read without holding the cache lock.
+	 *
+	 * @param imageIdentifier The image identifier.
+	 * @param tilePosition The tile position.
+	 * @param tileTimestamp The time the tile was last updated.
+	 * @return The encoded tile, or {@code null} if that version of the tile is not in the cache.
+	 */
+	private SharedTileImage getSharedTileImage(ImageIdentifier imageIdentifier, TilePosition tilePosition, long tileTimestamp)
+	{
+		synchronized (this)
+		{
+			HashMap<TilePosition, CachedTileImage> cache = this.caches.get(imageIdentifier);
+			if (cache == null)
+			{
+				return null;
+			}
+			CachedTileImage cachedImage = cache.get(tilePosition);
+			if (cachedImage != null && cachedImage.tileTimestamp == tileTimestamp)
+			{
+				return cachedImage.share();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Stores an encoded tile in the cache, unless the cache already has a more recent version of it.
+	 * <p/>
+	 * The tiles of the previous layout are kept along with those of the current one, since the tiles of a new layout are encoded before it is published, while the viewers still request tiles of the previous one.
+	 *
+	 * @param imageIdentifier The image identifier.
+	 * @param tilePosition The tile position.
+	 * @param tileTimestamp The time the tile was last updated.
+	 * @param encodedTile The encoded tile.
+	 */
+	void cacheTileImage(ImageIdentifier imageIdentifier, TilePosition tilePosition, long tileTimestamp, EncodedTile encodedTile)
+	{
+		synchronized (this)
+		{
+			HashMap<TilePosition, CachedTileImage> cache = this.caches.get(imageIdentifier);
+			if (cache == null)
+			{
+				// only the most recent layouts are kept, so the tiles of the oldest one are dropped.
+				if (this.caches.size() >= MAX_CACHED_LAYOUTS)
+				{
+					Iterator<ImageIdentifier> iterator = this.caches.keySet().iterator();
+					iterator.next();
+					iterator.remove();
+				}
+				cache = new HashMap<TilePosition, CachedTileImage>();
+				this.caches.put(imageIdentifier, cache);
+			}
+			CachedTileImage cachedImage = cache.get(tilePosition);
+			if (cachedImage == null)
+			{
+				cache.put(tilePosition, new CachedTileImage(tileTimestamp, encodedTile));
+			}
+			else if (cachedImage.tileTimestamp <= tileTimestamp)
+			{
+				cachedImage.update(tileTimestamp, encodedTile);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a tile with the current codec, reading its pixels directly.
+	 *
+	 * @param tileImage The tile.
+	 * @return The encoded tile.
+	 * @throws IOException If the tile could not be encoded.
+	 */
+	EncodedTile encodeTile(TileImage tileImage) throws IOException
+	{
+		return this.tileCodec.encode(tileImage.getPixels(), tileImage.getIndex(tileImage.x0, tileImage.y0), tileImage.getScanlineStride(), tileImage.getWidth(), tileImage.getHeight());
 	}
 
 	private HttpResponse handleStaticRequest(String pageName, String mimeType)
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.server;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ * Encodes tiles into a format which browsers can decode, such as PNG or JPEG.
+ * <p/>
+ * A codec may be used by several threads at once.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public interface TileCodec
+{
+	/**
+	 * Encodes a region of pixels stored as {@code int} values, in the layout of {@link java.awt.image.BufferedImage#TYPE_INT_RGB}.
+	 *
+	 * @param pixels The pixels. Its position and limit are ignored.
+	 * @param offset The index of the top left pixel of the region.
+	 * @param scanlineStride The distance between two vertically adjacent pixels.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @return The encoded tile.
+	 * @throws IOException If the tile could not be encoded.
+	 */
+	EncodedTile encode(IntBuffer pixels, int offset, int scanlineStride, int width, int height) throws IOException;
+}
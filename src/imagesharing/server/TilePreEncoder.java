@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019 Felipe Michels Fontoura
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ 
+ * Except as contained in this notice, the name of the above copyright holder
+ * shall not be used in advertising or otherwise to promote the sale, use or
+ * other dealings in this Software without prior written authorization.
+ */
+
+package imagesharing.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import imagesharing.controller.ImageIdentifier;
+import imagesharing.controller.ImageUpdate;
+import imagesharing.controller.ImageUpdateListener;
+import imagesharing.controller.TileImage;
+import imagesharing.controller.TilePosition;
+import imagesharing.util.RunOnceRunnable;
+
+/**
+ * Encodes the changed tiles as soon as the controller updates its image, filling the tile cache of a {@link SingleScreenSharingServer}.
+ * <p/>
+ * The controller tells its listeners about an update before publishing it, and this listener only returns once all changed tiles are encoded. So, by the time a viewer learns that a tile has changed, the encoded tile is already in the cache, and the viewers never wait for each other to encode it. The tiles are encoded on a pool of worker threads, with the controller thread helping.
+ *
+ * @author Felipe Michels Fontoura
+ */
+public class TilePreEncoder implements ImageUpdateListener
+{
+	private final SingleScreenSharingServer server;
+	private final ExecutorService executor;
+
+	public TilePreEncoder(SingleScreenSharingServer server)
+	{
+		this(server, Runtime.getRuntime().availableProcessors());
+	}
+
+	public TilePreEncoder(SingleScreenSharingServer server, int threadCount)
+	{
+		if (server == null)
+		{
+			throw new NullPointerException("The server must be provided!");
+		}
+		if (threadCount <= 0)
+		{
+			throw new IllegalArgumentException("The thread count must be positive!");
+		}
+		this.server = server;
+		this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stops the worker threads. Tiles changed afterwards are encoded by the controller thread.
+	 */
+	public void stop()
+	{
+		this.executor.shutdown();
+	}
+
+	@Override
+	@SuppressWarnings( "unchecked" )
+	public void imageUpdated(ImageUpdate update)
+	{
+		List<TilePosition> changedTiles = update.getChangedTiles();
+		if (changedTiles.isEmpty())
+		{
+			return;
+		}
+
+		ImageIdentifier imageIdentifier = update.getImageDescription().imageIdentifier;
+		RunOnceRunnable<EncodeTileTask>[] tasks = new RunOnceRunnable[changedTiles.size()];
+		for (int i = 0; i < tasks.length; i++)
+		{
+			TilePosition tilePosition = changedTiles.get(i);
+			tasks[i] = new RunOnceRunnable<EncodeTileTask>(new EncodeTileTask(imageIdentifier, tilePosition, update.getTileImage(tilePosition)));
+		}
+
+		// the worker threads encode the tiles, while this thread encodes whatever they have not picked up yet.
+		try
+		{
+			for (int i = 0; i < tasks.length; i++)
+			{
+				this.executor.execute(tasks[i]);
+			}
+		}
+		catch (RejectedExecutionException e)
+		{
+		}
+		for (int i = tasks.length - 1; i >= 0; i--)
+		{
+			tasks[i].run();
+		}
+		for (int i = 0; i < tasks.length; i++)
+		{
+			while (true)
+			{
+				try
+				{
+					tasks[i].join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes a single tile and stores it in the cache.
+	 */
+	private final class EncodeTileTask implements Runnable
+	{
+		private final ImageIdentifier imageIdentifier;
+		private final TilePosition tilePosition;
+		private final TileImage tileImage;
+
+		public EncodeTileTask(ImageIdentifier imageIdentifier, TilePosition tilePosition, TileImage tileImage)
+		{
+			this.imageIdentifier = imageIdentifier;
+			this.tilePosition = tilePosition;
+			this.tileImage = tileImage;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				SingleScreenSharingServer server = TilePreEncoder.this.server;
+				EncodedTile encodedTile = server.encodeTile(this.tileImage);
+				server.cacheTileImage(this.imageIdentifier, this.tilePosition, this.tileImage.getInstant(), encodedTile);
+			}
+			catch (IOException e)
+			{
+				// the tile will be encoded when a viewer requests it.
+			}
+		}
+	}
+}